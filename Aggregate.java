@@ -0,0 +1,66 @@
+/**
+ * Running SUM/MIN/MAX/MEAN state for function arguments. The sum is
+ * Kahan-compensated so that long ranges do not drift; a plain sum is kept
+ * beside it because the compensation turns an overflow into NaN.
+ */
+final class Aggregate {
+
+    private double sum;
+    private double compensation;
+    private double simpleSum;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    private long count;
+
+    void add(double v) {
+        double y = v - compensation;
+        double t = sum + y;
+        compensation = (t - sum) - y;
+        sum = t;
+        simpleSum += v;
+        if (v < min || Double.isNaN(v)) min = v;
+        if (v > max || Double.isNaN(v)) max = v;
+        count++;
+    }
+
+    /** Folds in {@code n} values whose total, minimum and maximum are already known. */
+    void addRun(double runSum, double runMin, double runMax, long n) {
+        double y = runSum - compensation;
+        double t = sum + y;
+        compensation = (t - sum) - y;
+        sum = t;
+        simpleSum += runSum;
+        if (runMin < min || Double.isNaN(runMin)) min = runMin;
+        if (runMax > max || Double.isNaN(runMax)) max = runMax;
+        count += n;
+    }
+
+    void reset() {
+        sum = 0;
+        compensation = 0;
+        simpleSum = 0;
+        min = Double.POSITIVE_INFINITY;
+        max = Double.NEGATIVE_INFINITY;
+        count = 0;
+    }
+
+    long count() { return count; }
+
+    /** Result for a {@link ParsedFormula} function opcode. */
+    double result(int function) {
+        if (count == 0)
+            throw new IllegalStateException("Function " + ParsedFormula.functionName(function) + " has no arguments");
+        switch (function) {
+            case ParsedFormula.SUM: return sum();
+            case ParsedFormula.MIN: return min;
+            case ParsedFormula.MAX: return max;
+            case ParsedFormula.MEAN: return sum() / count;
+            default: throw new IllegalStateException("Unknown function opcode: " + function);
+        }
+    }
+
+    // As Collectors.summingDouble does: an infinite total poisons the compensated one with NaN
+    private double sum() {
+        return Double.isNaN(sum) && Double.isInfinite(simpleSum) ? simpleSum : sum;
+    }
+}
@@ -0,0 +1,199 @@
+import java.util.Arrays;
+
+/**
+ * Per-column segment trees over cell values, so SUM/MIN/MAX/MEAN over a tall
+ * range cost O(log n) plus one visit per formula or text cell inside it.
+ * Numeric and empty cells are folded into the tree; formula and text cells are
+ * "special" leaves that the caller evaluates individually, since their value
+ * is not a constant. A column's tree is only built the first time a large range
+ * over it is queried, and is then kept current by {@link #update}.
+ *
+ * <p>Each node keeps the rounding error of its sum beside it (TwoSum), so a
+ * range sum is within an ulp of the exact sum of its constants. The
+ * Kahan-compensated scans of {@link Aggregate} and {@link RangeKernel} stay
+ * within Kahan's bound, about 2 ulps of the sum of the values' magnitudes, so
+ * a SUM over more and over fewer than {@link #THRESHOLD} rows can differ in its
+ * last bits when its values cancel. A built column holds 4 doubles and an int per node, 2 nodes per
+ * leaf, with leaves rounded up to a power of two: 72 to 144 bytes per row of
+ * the sheet, about 75 MB for a column of a million rows.
+ */
+final class AggregateIndex {
+
+    // Ranges spanning fewer rows than this are cheaper to scan directly
+    static final int THRESHOLD = 64;
+
+    private final SpreadsheetStorage storage;
+    private volatile ColumnTree[] columns = new ColumnTree[0];
+
+    AggregateIndex(SpreadsheetStorage storage) {
+        this.storage = storage;
+    }
+
+    /** Keeps a built column in step with a cell write; 0-based coordinates. */
+    void update(int row0, int col0, CellContent content) {
+        ColumnTree[] cols = columns;
+        if (col0 < cols.length && cols[col0] != null) cols[col0].set(row0, content);
+    }
+
+    /** Folds the 1-based rectangle into {@code into}, evaluating formula and text cells through {@code sheet}. */
+    void aggregate(Spreadsheet sheet, int r1, int c1, int r2, int c2, Aggregate into) {
+        for (int c = c1; c <= c2; c++) {
+            column(c - 1).aggregate(sheet, r1 - 1, r2 - 1, c, into);
+        }
+    }
+
+    /** First 1-based row in [from, to] of column {@code col} holding a formula or text cell, or -1. */
+    int nextNonConstantRow(int col, int from, int to) {
+        ColumnTree tree = column(col - 1);
+        int last = Math.min(to - 1, tree.capacity - 1);
+        int row0 = tree.nextSpecial(from - 1, last);
+        return row0 < 0 ? -1 : row0 + 1;
+    }
+
+    private ColumnTree column(int col0) {
+        ColumnTree[] cols = columns;
+        if (col0 < cols.length && cols[col0] != null) return cols[col0];
+        synchronized (this) {
+            cols = columns;
+            if (col0 < cols.length && cols[col0] != null) return cols[col0];
+            ColumnTree tree = new ColumnTree(storage, col0);
+            ColumnTree[] grown = Arrays.copyOf(cols, Math.max(cols.length, col0 + 1));
+            grown[col0] = tree;
+            columns = grown;
+            return tree;
+        }
+    }
+
+    private static final class ColumnTree {
+        private final SpreadsheetStorage storage;
+        private final int col0;
+        private int capacity;
+        private double[] sum;
+        // Rounding error of sum[i]: sum[i] + err[i] is the subtree's exact sum, to double precision
+        private double[] err;
+        private double[] min;
+        private double[] max;
+        private int[] special;
+
+        ColumnTree(SpreadsheetStorage storage, int col0) {
+            this.storage = storage;
+            this.col0 = col0;
+            build(Math.max(1, storage.getRowCount()));
+        }
+
+        private void build(int rows) {
+            int cap = Integer.highestOneBit(Math.max(1, rows - 1)) << 1;
+            capacity = cap;
+            sum = new double[2 * cap];
+            err = new double[2 * cap];
+            min = new double[2 * cap];
+            max = new double[2 * cap];
+            special = new int[2 * cap];
+            int limit = Math.min(cap, storage.getRowCount());
+            for (int r = 0; r < limit; r++) leaf(cap + r, storage.getCell(r, col0).getContent());
+            for (int i = cap - 1; i >= 1; i--) pull(i);
+        }
+
+        void set(int row0, CellContent content) {
+            if (row0 >= capacity) {
+                build(row0 + 1);
+                return;
+            }
+            int i = capacity + row0;
+            leaf(i, content);
+            for (i >>= 1; i >= 1; i >>= 1) pull(i);
+        }
+
+        private void leaf(int i, CellContent content) {
+            if (content instanceof NumericContent || content instanceof EmptyContent) {
+                double v = content.getNumericValue(null);
+                sum[i] = v;
+                err[i] = 0;
+                min[i] = v;
+                max[i] = v;
+                special[i] = 0;
+            } else {
+                sum[i] = 0;
+                err[i] = 0;
+                min[i] = Double.POSITIVE_INFINITY;
+                max[i] = Double.NEGATIVE_INFINITY;
+                special[i] = 1;
+            }
+        }
+
+        private void pull(int i) {
+            int l = 2 * i;
+            int r = l + 1;
+            double a = sum[l];
+            double b = sum[r];
+            double t = a + b;
+            double bv = t - a;
+            sum[i] = t;
+            err[i] = err[l] + err[r] + ((a - (t - bv)) + (b - bv));
+            min[i] = Math.min(min[l], min[r]);
+            max[i] = Math.max(max[l], max[r]);
+            special[i] = special[l] + special[r];
+        }
+
+        void aggregate(Spreadsheet sheet, int from, int to, int col, Aggregate into) {
+            // Rows past the tree are empty and count as zeros
+            int beyond = 0;
+            if (to >= capacity) {
+                beyond = to - Math.max(from, capacity) + 1;
+                to = capacity - 1;
+            }
+            if (beyond > 0) into.addRun(0, 0, 0, beyond);
+            if (from > to) return;
+
+            double s = 0;
+            double e = 0;
+            double lo = Double.POSITIVE_INFINITY;
+            double hi = Double.NEGATIVE_INFINITY;
+            int specials = 0;
+            for (int l = from + capacity, r = to + capacity + 1; l < r; l >>= 1, r >>= 1) {
+                if ((l & 1) == 1) {
+                    double t = s + sum[l];
+                    double bv = t - s;
+                    e += err[l] + ((s - (t - bv)) + (sum[l] - bv));
+                    s = t;
+                    lo = Math.min(lo, min[l]);
+                    hi = Math.max(hi, max[l]);
+                    specials += special[l];
+                    l++;
+                }
+                if ((r & 1) == 1) {
+                    r--;
+                    double t = s + sum[r];
+                    double bv = t - s;
+                    e += err[r] + ((s - (t - bv)) + (sum[r] - bv));
+                    s = t;
+                    lo = Math.min(lo, min[r]);
+                    hi = Math.max(hi, max[r]);
+                    specials += special[r];
+                }
+            }
+            int constants = to - from + 1 - specials;
+            // An infinite or NaN sum makes the error terms NaN; they only matter for finite sums
+            if (constants > 0) into.addRun(Double.isFinite(s) ? s + e : s, lo, hi, constants);
+            RecalcMetrics.rangeScanned(specials);
+
+            for (int row = nextSpecial(from, to); row >= 0; row = nextSpecial(row + 1, to)) {
+                into.add(sheet.getCell(row + 1, col).getContent().getNumericValue(sheet));
+            }
+        }
+
+        /** First special row in [from, to], or -1. */
+        int nextSpecial(int from, int to) {
+            if (from > to) return -1;
+            return nextSpecial(1, 0, capacity - 1, from, to);
+        }
+
+        private int nextSpecial(int node, int lo, int hi, int from, int to) {
+            if (hi < from || lo > to || special[node] == 0) return -1;
+            if (lo == hi) return lo;
+            int mid = (lo + hi) >>> 1;
+            int left = nextSpecial(2 * node, lo, mid, from, to);
+            return left >= 0 ? left : nextSpecial(2 * node + 1, mid + 1, hi, from, to);
+        }
+    }
+}
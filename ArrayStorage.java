@@ -4,9 +4,12 @@ import java.util.List;
 
 public class ArrayStorage implements SpreadsheetStorage {
     private Cell[][] grid;
+    // extent[r] is one past the last non-empty column of row r
+    private final int[] extent;
     public ArrayStorage(int rows, int cols) {
         if (rows <= 0 || cols <= 0) throw new IllegalArgumentException("rows/cols must be positive");
         grid = new Cell[rows][cols];
+        extent = new int[rows];
         for (int r=0;r<rows;r++) for (int c=0;c<cols;c++) grid[r][c] = new Cell(new EmptyContent());
     }
 
@@ -19,10 +22,41 @@ public class ArrayStorage implements SpreadsheetStorage {
         return grid[row0][col0];
     }
 
+    @Override
+    public int readNumbers(int row0, int col0, int n, double[] out, int at) {
+        if (n == 0) return 0;
+        checkBounds(row0, col0);
+        checkBounds(row0, col0 + n - 1);
+        Cell[] row = grid[row0];
+        for (int i = 0; i < n; i++) {
+            CellContent cc = row[col0 + i].getContent();
+            if (cc instanceof NumericContent) out[at + i] = cc.getNumericValue(null);
+            else if (cc instanceof EmptyContent) out[at + i] = 0;
+            else return i;
+        }
+        return n;
+    }
+
     @Override
     public void setCell(int row0, int col0, Cell cell) {
         checkBounds(row0, col0);
         grid[row0][col0] = (cell == null ? new Cell(new EmptyContent()) : cell);
+        if (!grid[row0][col0].getContent().isEmpty()) {
+            if (col0 >= extent[row0]) extent[row0] = col0 + 1;
+        } else if (col0 == extent[row0] - 1) {
+            int c = col0;
+            while (c > 0 && grid[row0][c - 1].getContent().isEmpty()) c--;
+            extent[row0] = c;
+        }
+    }
+
+    /** Visits each row only up to its last non-empty cell. */
+    @Override
+    public void forEachCell(CellVisitor visitor) {
+        for (int r = 0; r < grid.length; r++) {
+            Cell[] row = grid[r];
+            for (int c = 0, n = extent[r]; c < n; c++) visitor.visit(r, c, row[c]);
+        }
     }
 
     @Override
@@ -0,0 +1,209 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Runs a command script without the menu, for jobs that used to pipe
+ * keystrokes into {@link Main}. One command per line; blank lines and lines
+ * starting with '#' are skipped.
+ *
+ * <pre>
+ * new ROWS COLS        fresh sheet, as menu option 1
+ * set A1 RAW           RAW is the rest of the line: "=..." is a formula, numbers are numeric, the rest text
+ * get A1               prints the value
+ * region A1 C3         prints raw contents, as menu option 5
+ * load PATH | save PATH | open PATH
+ * </pre>
+ *
+ * A run of consecutive {@code set} lines is committed as one transaction, so
+ * it costs one invalidation pass instead of one per cell, and cycles are
+ * judged on the run's final state. If the transaction fails, its lines are
+ * applied one at a time instead, so the good ones still apply and each bad
+ * one is reported by its line number. A set line whose cell is bad is held
+ * with the run and reported when it commits. Output goes through the caller's
+ * writer; errors are written in line order as "ERROR line N: message" and do
+ * not stop the script.
+ */
+final class BatchMode {
+
+    // Bounds the memory a long run of sets may stage before it is committed
+    private static final int MAX_STAGED = 1 << 20;
+
+    private final Writer out;
+    private final S2VSerializer serializer = new S2VSerializer();
+    private final SnapshotSerializer snapshots = new SnapshotSerializer();
+    private Spreadsheet sheet;
+    private int errors;
+
+    // Pending sets, in script order; a set that already failed keeps its error instead of a cell
+    private int[] lines = new int[256];
+    private int[] rows = new int[256];
+    private int[] cols = new int[256];
+    private String[] raws = new String[256];
+    private RuntimeException[] problems = new RuntimeException[256];
+    private int staged;
+
+    BatchMode(Writer out) {
+        this.out = out;
+    }
+
+    /** Runs every command in {@code in}; returns the number of failed lines. */
+    int run(BufferedReader in) throws IOException {
+        int lineNo = 0;
+        for (String line = in.readLine(); line != null; line = in.readLine()) {
+            lineNo++;
+            line = line.strip();
+            if (line.isEmpty() || line.charAt(0) == '#') continue;
+            if (line.startsWith("set ")) {
+                stage(lineNo, line);
+                continue;
+            }
+            commit();
+            try {
+                execute(line);
+            } catch (IOException | RuntimeException ex) {
+                error(lineNo, ex);
+            }
+        }
+        commit();
+        out.flush();
+        return errors;
+    }
+
+    private void execute(String line) throws IOException {
+        String[] args = line.split("\\s+");
+        switch (args[0]) {
+            case "new" -> {
+                arity(args, 3);
+                sheet = new Spreadsheet(Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+            }
+            case "get" -> {
+                arity(args, 2);
+                int[] rc = cell(args[1]);
+                CellContent c = requireSheet().getCell(rc[0], rc[1]).getContent();
+                out.write(c.isEmpty() ? "" : c.getTextValue(sheet));
+                out.write(System.lineSeparator());
+            }
+            case "region" -> {
+                arity(args, 3);
+                int[] a = cell(args[1]);
+                int[] b = cell(args[2]);
+                requireSheet().printRawRegion(a[0], a[1], b[0], b[1], out);
+            }
+            case "save" -> {
+                Path p = path(line, args);
+                if (Main.isSnapshot(p)) snapshots.save(requireSheet(), p);
+                else serializer.save(requireSheet(), p);
+            }
+            case "load" -> {
+                Path p = path(line, args);
+                sheet = Main.isSnapshot(p) ? snapshots.load(p) : serializer.load(p);
+            }
+            case "open" -> sheet = serializer.openLazy(path(line, args));
+            default -> throw new IllegalArgumentException("Unknown command: " + args[0]);
+        }
+    }
+
+    private void stage(int lineNo, String line) throws IOException {
+        int sp = line.indexOf(' ', 4);
+        String coord = sp < 0 ? line.substring(4) : line.substring(4, sp);
+        if (staged == raws.length) {
+            int cap = staged * 2;
+            lines = Arrays.copyOf(lines, cap);
+            rows = Arrays.copyOf(rows, cap);
+            cols = Arrays.copyOf(cols, cap);
+            raws = Arrays.copyOf(raws, cap);
+            problems = Arrays.copyOf(problems, cap);
+        }
+        lines[staged] = lineNo;
+        try {
+            requireSheet();
+            int[] rc = cell(coord);
+            rows[staged] = rc[0];
+            cols[staged] = rc[1];
+            raws[staged] = sp < 0 ? "" : line.substring(sp + 1).strip();
+        } catch (RuntimeException ex) {
+            problems[staged] = ex;
+        }
+        if (++staged == MAX_STAGED) commit();
+    }
+
+    private void commit() throws IOException {
+        if (staged == 0) return;
+        int n = staged;
+        staged = 0;
+        // With no sheet every line failed when staged, and there is nothing to commit
+        boolean applied = sheet == null;
+        if (!applied) {
+            try {
+                Spreadsheet.Transaction tx = sheet.begin();
+                for (int i = 0; i < n; i++) {
+                    if (problems[i] != null) continue;
+                    if (raws[i].startsWith("=")) tx.setFormula(rows[i], cols[i], raws[i]);
+                    else tx.set(rows[i], cols[i], CellContentFactory.fromRaw(raws[i], rows[i], cols[i]));
+                }
+                tx.commit();
+                applied = true;
+            } catch (RuntimeException batchFailed) {
+                // Nothing was applied; below, the lines are redone singly to apply the good ones and name the bad ones
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            if (problems[i] != null) {
+                error(lines[i], problems[i]);
+            } else if (!applied) {
+                try {
+                    sheet.setCell(rows[i], cols[i], CellContentFactory.fromRaw(raws[i], rows[i], cols[i]));
+                } catch (RuntimeException ex) {
+                    error(lines[i], ex);
+                }
+            }
+        }
+        Arrays.fill(raws, 0, n, null);
+        Arrays.fill(problems, 0, n, null);
+    }
+
+    private void error(int lineNo, Exception ex) throws IOException {
+        errors++;
+        out.write("ERROR line " + lineNo + ": " + ex.getMessage());
+        out.write(System.lineSeparator());
+    }
+
+    private Spreadsheet requireSheet() {
+        if (sheet == null) throw new IllegalStateException("Create or load a spreadsheet first.");
+        return sheet;
+    }
+
+    private static int[] cell(String coord) {
+        int[] rc;
+        try {
+            rc = Spreadsheet.coordToIndices(coord.toUpperCase());
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Bad cell " + coord);
+        }
+        if (rc[0] < 1 || rc[1] < 1) throw new IllegalArgumentException("Bad cell " + coord);
+        return rc;
+    }
+
+    private static void arity(String[] args, int n) {
+        if (args.length != n) throw new IllegalArgumentException("Usage: " + usage(args[0]));
+    }
+
+    // Paths are the rest of the line, so they may contain spaces
+    private static Path path(String line, String[] args) {
+        if (args.length < 2) throw new IllegalArgumentException("Usage: " + args[0] + " PATH");
+        return Paths.get(line.substring(args[0].length()).strip());
+    }
+
+    private static String usage(String command) {
+        return switch (command) {
+            case "new" -> "new ROWS COLS";
+            case "get" -> "get CELL";
+            case "region" -> "region FROM TO";
+            default -> command;
+        };
+    }
+}
@@ -1,8 +1,19 @@
 public final class Cell {
     private CellContent content;
+    private final boolean readOnly;
 
     public Cell(CellContent content) {
+        this(content, false);
+    }
+
+    private Cell(CellContent content, boolean readOnly) {
         this.content = content == null ? new EmptyContent() : content;
+        this.readOnly = readOnly;
+    }
+
+    /** A cell whose content can never be replaced, safe to share between positions. */
+    static Cell readOnly(CellContent content) {
+        return new Cell(content, true);
     }
 
     public CellContent getContent() {
@@ -10,6 +21,7 @@ public final class Cell {
     }
 
     public void setContent(CellContent content) {
+        if (readOnly) throw new IllegalStateException("Read-only cell cannot be modified; store a new Cell");
         this.content = content == null ? new EmptyContent() : content;
     }
 }
@@ -11,4 +11,64 @@ class CellContentFactory {
     static CellContent createFormula(String s) {
         return new FormulaContent(s);
     }
+
+    static CellContent createFormula(String s, int row, int col) {
+        return new FormulaContent(s, row, col);
+    }
+
+    /**
+     * Classifies raw cell text the way the S2V format does: a leading '=' is a
+     * formula, anything Double.parseDouble accepts is numeric, the rest is text.
+     */
+    static CellContent fromRaw(String raw, int row, int col) {
+        if (raw.isEmpty()) return new EmptyContent();
+        if (raw.charAt(0) == '=') return new FormulaContent(raw, row, col);
+        if (isNumeric(raw)) return new NumericContent(Double.parseDouble(raw));
+        return new TextContent(raw);
+    }
+
+    /**
+     * True exactly when Double.parseDouble accepts {@code s}, checked by
+     * scanning rather than by catching NumberFormatException, so text such as
+     * dates costs no exception: optional padding and sign, then NaN, Infinity,
+     * a decimal or a hex float with an optional f/F/d/D suffix.
+     */
+    static boolean isNumeric(String s) {
+        int i = 0;
+        int n = s.length();
+        while (i < n && s.charAt(i) <= ' ') i++;
+        while (n > i && s.charAt(n - 1) <= ' ') n--;
+        if (i < n && (s.charAt(i) == '+' || s.charAt(i) == '-')) i++;
+        if (s.startsWith("NaN", i)) return i + 3 == n;
+        if (s.startsWith("Infinity", i)) return i + 8 == n;
+
+        boolean hex = i + 1 < n && s.charAt(i) == '0' && (s.charAt(i + 1) == 'x' || s.charAt(i + 1) == 'X');
+        if (hex) i += 2;
+        int digits = 0;
+        while (i < n && isDigit(s.charAt(i), hex)) { i++; digits++; }
+        if (i < n && s.charAt(i) == '.') {
+            i++;
+            while (i < n && isDigit(s.charAt(i), hex)) { i++; digits++; }
+        }
+        if (digits == 0) return false;
+
+        // The exponent is optional for decimals and required, in binary, for hex
+        char mark = i < n ? s.charAt(i) : 0;
+        if (hex ? mark == 'p' || mark == 'P' : mark == 'e' || mark == 'E') {
+            i++;
+            if (i < n && (s.charAt(i) == '+' || s.charAt(i) == '-')) i++;
+            int exp = i;
+            while (i < n && isDigit(s.charAt(i), false)) i++;
+            if (i == exp) return false;
+        } else if (hex) {
+            return false;
+        }
+        if (i < n && "fFdD".indexOf(s.charAt(i)) >= 0) i++;
+        return i == n;
+    }
+
+    private static boolean isDigit(char ch, boolean hex) {
+        if (ch >= '0' && ch <= '9') return true;
+        return hex && ((ch >= 'a' && ch <= 'f') || (ch >= 'A' && ch <= 'F'));
+    }
 }
@@ -0,0 +1,29 @@
+/**
+ * Packs a 1-based (row, col) pair into a single long so that cells can be used
+ * as primitive keys. Valid ids are never 0.
+ */
+final class CellId {
+
+    private CellId() {}
+
+    static long of(int row, int col) {
+        return ((long) row << 32) | (col & 0xFFFFFFFFL);
+    }
+
+    static int row(long id) {
+        return (int) (id >>> 32);
+    }
+
+    static int col(long id) {
+        return (int) id;
+    }
+
+    static long fromCoord(String coord) {
+        int[] rc = Spreadsheet.coordToIndices(coord);
+        return of(rc[0], rc[1]);
+    }
+
+    static String toCoord(long id) {
+        return Spreadsheet.indicesToCoord(row(id), col(id));
+    }
+}
@@ -0,0 +1,103 @@
+import java.util.function.LongConsumer;
+
+/**
+ * Open-addressing map from {@link CellId} values to objects, laid out as two
+ * parallel arrays so that lookups never box the key. 0 marks a free slot.
+ */
+final class CellIdMap<V> {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys = new long[MIN_CAPACITY];
+    private Object[] values = new Object[MIN_CAPACITY];
+    private int size;
+
+    int size() { return size; }
+
+    @SuppressWarnings("unchecked")
+    V get(long id) {
+        long[] k = keys;
+        int mask = k.length - 1;
+        for (int i = CellIdSet.slot(id, mask); ; i = (i + 1) & mask) {
+            if (k[i] == id) return (V) values[i];
+            if (k[i] == 0) return null;
+        }
+    }
+
+    boolean containsKey(long id) {
+        return get(id) != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    V put(long id, V value) {
+        if (id == 0) throw new IllegalArgumentException("0 is not a valid cell id");
+        if (value == null) return remove(id);
+        int mask = keys.length - 1;
+        int i = CellIdSet.slot(id, mask);
+        while (keys[i] != 0) {
+            if (keys[i] == id) {
+                V old = (V) values[i];
+                values[i] = value;
+                return old;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = id;
+        values[i] = value;
+        if (++size * 4 > keys.length * 3) rehash(keys.length << 1);
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    V remove(long id) {
+        long[] k = keys;
+        Object[] v = values;
+        int mask = k.length - 1;
+        int i = CellIdSet.slot(id, mask);
+        while (k[i] != id) {
+            if (k[i] == 0) return null;
+            i = (i + 1) & mask;
+        }
+        V old = (V) v[i];
+        int gap = i;
+        for (int j = (gap + 1) & mask; k[j] != 0; j = (j + 1) & mask) {
+            int home = CellIdSet.slot(k[j], mask);
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                k[gap] = k[j];
+                v[gap] = v[j];
+                gap = j;
+            }
+        }
+        k[gap] = 0;
+        v[gap] = null;
+        size--;
+        return old;
+    }
+
+    void forEachKey(LongConsumer action) {
+        for (long id : keys) if (id != 0) action.accept(id);
+    }
+
+    long[] keysArray() {
+        long[] out = new long[size];
+        int n = 0;
+        for (long id : keys) if (id != 0) out[n++] = id;
+        return out;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new long[capacity];
+        values = new Object[capacity];
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            long id = oldKeys[j];
+            if (id == 0) continue;
+            int i = CellIdSet.slot(id, mask);
+            while (keys[i] != 0) i = (i + 1) & mask;
+            keys[i] = id;
+            values[i] = oldValues[j];
+        }
+    }
+}
@@ -0,0 +1,105 @@
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Open-addressing hash set of {@link CellId} values using linear probing.
+ * 0 marks a free slot, which is safe because valid cell ids are never 0.
+ */
+final class CellIdSet {
+
+    private static final int MIN_CAPACITY = 4;
+
+    private long[] keys;
+    private int size;
+
+    CellIdSet() {
+        this(MIN_CAPACITY);
+    }
+
+    CellIdSet(int expected) {
+        int cap = MIN_CAPACITY;
+        while (cap * 3 < expected * 4) cap <<= 1;
+        keys = new long[cap];
+    }
+
+    int size() { return size; }
+
+    boolean isEmpty() { return size == 0; }
+
+    boolean contains(long id) {
+        long[] k = keys;
+        int mask = k.length - 1;
+        for (int i = slot(id, mask); ; i = (i + 1) & mask) {
+            if (k[i] == id) return true;
+            if (k[i] == 0) return false;
+        }
+    }
+
+    boolean add(long id) {
+        if (id == 0) throw new IllegalArgumentException("0 is not a valid cell id");
+        int mask = keys.length - 1;
+        int i = slot(id, mask);
+        while (keys[i] != 0) {
+            if (keys[i] == id) return false;
+            i = (i + 1) & mask;
+        }
+        keys[i] = id;
+        if (++size * 4 > keys.length * 3) rehash(keys.length << 1);
+        return true;
+    }
+
+    boolean remove(long id) {
+        long[] k = keys;
+        int mask = k.length - 1;
+        int i = slot(id, mask);
+        while (k[i] != id) {
+            if (k[i] == 0) return false;
+            i = (i + 1) & mask;
+        }
+        // Backward-shift deletion keeps probe chains intact without tombstones.
+        int gap = i;
+        for (int j = (gap + 1) & mask; k[j] != 0; j = (j + 1) & mask) {
+            int home = slot(k[j], mask);
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                k[gap] = k[j];
+                gap = j;
+            }
+        }
+        k[gap] = 0;
+        size--;
+        return true;
+    }
+
+    void clear() {
+        Arrays.fill(keys, 0);
+        size = 0;
+    }
+
+    void forEach(LongConsumer action) {
+        for (long id : keys) if (id != 0) action.accept(id);
+    }
+
+    long[] toArray() {
+        long[] out = new long[size];
+        int n = 0;
+        for (long id : keys) if (id != 0) out[n++] = id;
+        return out;
+    }
+
+    private void rehash(int capacity) {
+        long[] old = keys;
+        keys = new long[capacity];
+        int mask = capacity - 1;
+        for (long id : old) {
+            if (id == 0) continue;
+            int i = slot(id, mask);
+            while (keys[i] != 0) i = (i + 1) & mask;
+            keys[i] = id;
+        }
+    }
+
+    static int slot(long id, int mask) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,370 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of {@link Spreadsheet#setCell} edits and committed
+ * transactions on top of a snapshot checkpoint. Each edit costs one small
+ * record instead of a full save; opening loads the checkpoint and replays the
+ * log. Records are written ahead: the sheet appends one under its write lock
+ * before applying the edit, and an edit whose record cannot be written is not
+ * applied. Once the log grows past {@link #COMPACT_BYTES} a background thread
+ * encodes the sheet into a new checkpoint, holding edits off only while it
+ * encodes and switches to a fresh log. A journaled sheet is therefore always
+ * {@link Spreadsheet#concurrent() concurrent}.
+ *
+ * <pre>
+ * record   length, seq, cell count, cells, CRC32 of the preceding fields
+ * cell     row, col, kind, raw text length, raw text (UTF-8)
+ * </pre>
+ *
+ * A transaction is one record, so it is replayed completely or not at all. A
+ * torn or corrupt record at the end of the log (a crash mid-append) ends the
+ * replay; everything before it is kept.
+ */
+final class ChangeJournal implements Closeable {
+
+    /** When an edit counts as saved. */
+    enum Durability {
+        /** fsync every record before its edit is applied. */
+        SYNC,
+        /**
+         * fsync before {@code setCell} or {@code commit} returns, outside the sheet's
+         * lock, so edits racing on several threads share one fsync. Other threads
+         * may read an edit before it is durable.
+         */
+        GROUP,
+        /** Hand records to the OS only; survives a crash of the process, not of the machine. */
+        ASYNC
+    }
+
+    static final long COMPACT_BYTES = Long.getLong("spreadsheet.journalCompactBytes", 64L << 20);
+
+    private static final byte EMPTY = 0;
+    private static final byte TEXT = 1;
+    private static final byte NUMERIC = 2;
+    private static final byte FORMULA = 3;
+    // length + seq + cell count, row + col + kind + raw length per cell, and the trailing checksum
+    private static final int HEADER = 4 + 8 + 4;
+    private static final int CELL = 4 + 4 + 1 + 4;
+    private static final int TRAILER = 4;
+
+    private final Spreadsheet sheet;
+    private final Path checkpoint;
+    private final Path log;
+    private final Path rotated;
+    private final Durability durability;
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer record = ByteBuffer.allocate(256);
+
+    private FileChannel channel;
+    private long size;
+    private long nextSeq;
+    private long syncedSeq;
+    private final Object syncLock = new Object();
+
+    private Thread compaction;
+    private boolean closed;
+    private volatile IOException compactionFailure;
+
+    private ChangeJournal(Spreadsheet sheet, Path checkpoint, Durability durability) {
+        this.sheet = sheet;
+        this.checkpoint = checkpoint;
+        this.log = checkpoint.resolveSibling(checkpoint.getFileName() + ".journal");
+        this.rotated = checkpoint.resolveSibling(checkpoint.getFileName() + ".journal.old");
+        this.durability = durability;
+    }
+
+    /** Starts journaling {@code sheet}: writes it as the checkpoint and begins an empty log. */
+    static ChangeJournal create(Spreadsheet sheet, Path checkpoint, Durability durability) throws IOException {
+        ChangeJournal j = new ChangeJournal(sheet, checkpoint, durability);
+        SnapshotSerializer.write(new SnapshotSerializer().encode(sheet), checkpoint);
+        Files.deleteIfExists(j.rotated);
+        j.channel = FileChannel.open(j.log, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        j.channel.force(true);
+        sheet.concurrent().setJournal(j);
+        return j;
+    }
+
+    /** Loads the checkpoint, replays the log over it and keeps journaling the result. */
+    static ChangeJournal open(Path checkpoint, Durability durability) throws IOException {
+        Spreadsheet sheet = new SnapshotSerializer().load(checkpoint);
+        ChangeJournal j = new ChangeJournal(sheet, checkpoint, durability);
+
+        // A log left over from an interrupted compaction holds edits older than the live one
+        boolean interrupted = Files.exists(j.rotated);
+        if (interrupted) j.replay(j.rotated);
+        long good = Files.exists(j.log) ? j.replay(j.log) : 0;
+
+        j.channel = FileChannel.open(j.log, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        j.channel.truncate(good);
+        j.channel.position(good);
+        j.size = good;
+        j.syncedSeq = j.nextSeq;
+        sheet.concurrent().setJournal(j);
+        if (interrupted) j.compact();
+        return j;
+    }
+
+    Spreadsheet sheet() {
+        return sheet;
+    }
+
+    /**
+     * Writes the record of an edit {@code sheet} is about to apply, under its
+     * write lock, and returns its sequence number for {@link #await}.
+     */
+    long append(long[] ids, CellContent[] contents) {
+        try {
+            synchronized (this) {
+                long seq = ++nextSeq;
+                encode(seq, ids, contents);
+                while (record.hasRemaining()) channel.write(record);
+                size += record.limit();
+                if (durability == Durability.SYNC) {
+                    channel.force(false);
+                    syncedSeq = seq;
+                }
+                return seq;
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Could not journal edit", ex);
+        }
+    }
+
+    /**
+     * Called by the editing thread once the sheet's lock is released: waits
+     * until record {@code seq} is as durable as promised, and starts a
+     * compaction if the log has grown too long.
+     */
+    void await(long seq) {
+        boolean full;
+        try {
+            if (durability == Durability.GROUP) sync(seq);
+            synchronized (this) {
+                full = size >= COMPACT_BYTES;
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Could not sync journal", ex);
+        }
+        if (full) compactInBackground();
+    }
+
+    /**
+     * Starts writing a new checkpoint unless one is already being written.
+     * Everything happens on a background thread; edits wait only while it
+     * encodes the sheet and moves the live log aside.
+     */
+    synchronized void compactInBackground() {
+        if (compaction != null || closed) return;
+        compaction = new Thread(() -> {
+            try {
+                SnapshotSerializer.write(rotateExclusive(), checkpoint);
+                Files.deleteIfExists(rotated);
+            } catch (IOException ex) {
+                compactionFailure = ex;
+            } finally {
+                synchronized (ChangeJournal.this) {
+                    compaction = null;
+                }
+            }
+        }, "journal-compaction");
+        compaction.setDaemon(true);
+        compaction.start();
+    }
+
+    /** Writes a new checkpoint and empties the log before returning. */
+    void compact() throws IOException {
+        awaitCompaction();
+        SnapshotSerializer.write(rotateExclusive(), checkpoint);
+        Files.deleteIfExists(rotated);
+    }
+
+    /** Bytes in the live log. */
+    synchronized long size() {
+        return size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+        }
+        awaitCompaction();
+        exclusive(() -> {
+            sheet.setJournal(null);
+            channel.force(false);
+            syncedSeq = nextSeq;
+            channel.close();
+            return null;
+        });
+    }
+
+    private interface Action<T> {
+        T run() throws IOException;
+    }
+
+    // Runs action holding the sheet's write lock and then this journal's, the order edits take them in
+    private <T> T exclusive(Action<T> action) throws IOException {
+        try {
+            return sheet.exclusive(() -> {
+                synchronized (this) {
+                    try {
+                        return action.run();
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                }
+            });
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    private byte[] rotateExclusive() throws IOException {
+        return exclusive(this::rotate);
+    }
+
+    // Encodes the sheet and moves the live log aside; caller holds both locks
+    private byte[] rotate() throws IOException {
+        byte[] image = new SnapshotSerializer().encode(sheet);
+        channel.force(false);
+        if (Files.exists(rotated)) {
+            // An earlier compaction never finished; its log may only be dropped once a checkpoint covers it
+            SnapshotSerializer.write(image, checkpoint);
+            Files.delete(rotated);
+        }
+        channel.close();
+        Files.move(log, rotated, StandardCopyOption.REPLACE_EXISTING);
+        channel = FileChannel.open(log, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        size = 0;
+        syncedSeq = nextSeq;
+        return image;
+    }
+
+    private void awaitCompaction() throws IOException {
+        Thread t;
+        synchronized (this) {
+            t = compaction;
+        }
+        if (t != null) {
+            try {
+                t.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for compaction", ex);
+            }
+        }
+        IOException failure = compactionFailure;
+        if (failure != null) {
+            compactionFailure = null;
+            throw failure;
+        }
+    }
+
+    // Group commit: whoever gets the lock first syncs every record written so far
+    private void sync(long seq) throws IOException {
+        synchronized (syncLock) {
+            long written;
+            FileChannel ch;
+            synchronized (this) {
+                if (syncedSeq >= seq) return;
+                written = nextSeq;
+                ch = channel;
+            }
+            // Forced outside the lock so appends carry on meanwhile
+            try {
+                ch.force(false);
+            } catch (ClosedChannelException ex) {
+                // A rotation or close swapped the channel out, and both sync it first
+                synchronized (this) {
+                    if (syncedSeq >= seq) return;
+                }
+                throw ex;
+            }
+            synchronized (this) {
+                if (written > syncedSeq) syncedSeq = written;
+            }
+        }
+    }
+
+    private void encode(long seq, long[] ids, CellContent[] contents) {
+        byte[][] raws = new byte[ids.length][];
+        int length = HEADER + TRAILER;
+        for (int i = 0; i < ids.length; i++) {
+            CellContent content = contents[i];
+            raws[i] = content.isEmpty() ? new byte[0] : content.getRaw().getBytes(StandardCharsets.UTF_8);
+            length += CELL + raws[i].length;
+        }
+        if (record.capacity() < length) record = ByteBuffer.allocate(Math.max(length, record.capacity() * 2));
+        record.clear();
+        record.putInt(length).putLong(seq).putInt(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            CellContent content = contents[i];
+            byte kind = content instanceof FormulaContent ? FORMULA
+                    : content instanceof NumericContent ? NUMERIC
+                    : content.isEmpty() ? EMPTY : TEXT;
+            record.putInt(CellId.row(ids[i])).putInt(CellId.col(ids[i])).put(kind)
+                    .putInt(raws[i].length).put(raws[i]);
+        }
+        crc.reset();
+        crc.update(record.array(), 0, record.position());
+        record.putInt((int) crc.getValue());
+        record.flip();
+    }
+
+    // Applies every intact record of {@code file} to the sheet; returns the length of the intact prefix
+    private long replay(Path file) throws IOException {
+        byte[] data = Files.readAllBytes(file);
+        ByteBuffer in = ByteBuffer.wrap(data);
+        CRC32 check = new CRC32();
+        while (in.remaining() >= HEADER + TRAILER) {
+            int start = in.position();
+            int length = in.getInt(start);
+            if (length < HEADER + TRAILER || length > in.remaining()) break;
+            check.reset();
+            check.update(data, start, length - TRAILER);
+            if ((int) check.getValue() != in.getInt(start + length - TRAILER)) break;
+
+            in.position(start + 4);
+            long seq = in.getLong();
+            int cells = in.getInt();
+            Spreadsheet.Transaction tx = sheet.begin();
+            for (int i = 0; i < cells; i++) {
+                int row = in.getInt();
+                int col = in.getInt();
+                byte kind = in.get();
+                int rawLength = in.getInt();
+                String raw = new String(data, in.position(), rawLength, StandardCharsets.UTF_8);
+                in.position(in.position() + rawLength);
+                tx.set(row, col, content(kind, raw, row, col));
+            }
+            in.position(start + length);
+
+            tx.commit();
+            nextSeq = Math.max(nextSeq, seq);
+        }
+        return in.position();
+    }
+
+    private static CellContent content(byte kind, String raw, int row, int col) {
+        switch (kind) {
+            case EMPTY: return new EmptyContent();
+            case TEXT: return new TextContent(raw);
+            case NUMERIC: return new NumericContent(Double.parseDouble(raw));
+            case FORMULA: return new FormulaContent(raw, row, col);
+            default: throw new IllegalStateException("Unknown journal record kind " + kind);
+        }
+    }
+}
@@ -0,0 +1,8 @@
+/**
+ * A formula turned into a tree of lambdas by {@link FormulaCompiler}. Reference
+ * coordinates are relative; (row, col) is the origin they are resolved against.
+ */
+@FunctionalInterface
+interface CompiledFormula {
+    double evaluate(Spreadsheet sheet, int row, int col);
+}
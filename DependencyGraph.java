@@ -0,0 +1,328 @@
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Formula dependency edges keyed by packed {@link CellId}s. Single-cell
+ * references are stored as explicit edges; range references stay rectangles in
+ * a {@link RangeIndex} and are never expanded into per-cell edges.
+ */
+final class DependencyGraph {
+
+    static final long[] NO_CELLS = new long[0];
+    static final int[] NO_RANGES = new int[0];
+
+    /** What one formula reads: single cells plus (r1, c1, r2, c2) quadruples, all 1-based. */
+    static final class Precedents {
+        final long[] cells;
+        final int[] ranges;
+
+        Precedents(long[] cells, int[] ranges) {
+            this.cells = cells;
+            this.ranges = ranges;
+        }
+
+        boolean isEmpty() {
+            return cells.length == 0 && ranges.length == 0;
+        }
+
+        boolean covers(long id) {
+            for (long c : cells) if (c == id) return true;
+            int row = CellId.row(id);
+            int col = CellId.col(id);
+            for (int i = 0; i < ranges.length; i += 4) {
+                if (row >= ranges[i] && row <= ranges[i + 2]
+                        && col >= ranges[i + 1] && col <= ranges[i + 3]) return true;
+            }
+            return false;
+        }
+    }
+
+    static final Precedents NONE = new Precedents(NO_CELLS, NO_RANGES);
+
+    private final CellIdMap<Precedents> precedents = new CellIdMap<>();
+    private final CellIdMap<CellIdSet> dependents = new CellIdMap<>();
+    private final RangeIndex ranges = new RangeIndex();
+
+    private final TopoOrder order = new TopoOrder();
+    // False while the graph holds a cycle that was loaded without a check; see ordered()
+    private boolean ordered = true;
+    // Edges can only stop forming a cycle when some are removed
+    private long removals;
+    private long removalsAtFailure = -1;
+
+    Precedents precedentsOf(long id) {
+        Precedents p = precedents.get(id);
+        return p == null ? NONE : p;
+    }
+
+    /** Reports every formula reading {@code id}, directly or through a range; duplicates are possible. */
+    void forEachDependent(long id, LongConsumer action) {
+        CellIdSet set = dependents.get(id);
+        if (set != null) set.forEach(action);
+        ranges.forEachContaining(CellId.row(id), CellId.col(id), action);
+    }
+
+    /**
+     * Replaces every outgoing edge of {@code id} without checking for cycles
+     * (loads may contain them; recalculation reports them). If a cycle does
+     * appear, the topological order is dropped and rebuilt once it is gone.
+     */
+    void setPrecedents(long id, Precedents deps) {
+        link(id, deps, false);
+    }
+
+    /**
+     * Replaces every outgoing edge of {@code id} unless that would close a
+     * cycle, in which case nothing changes and false is returned. The check
+     * only searches cells between {@code id} and its latest input in the
+     * topological order.
+     */
+    boolean trySetPrecedents(long id, Precedents deps) {
+        return link(id, deps, true);
+    }
+
+    void removePrecedents(long id) {
+        unlink(id);
+        order.remove(id);
+    }
+
+    /** Formula cells ordered so every cell comes after all the formulas it reads. */
+    long[] topologicalOrder() {
+        if (!ordered()) throw new IllegalStateException("Circular dependency detected");
+        return order.toArray();
+    }
+
+    /** False while the edges hold a cycle, however they were installed. */
+    boolean isAcyclic() {
+        return ordered();
+    }
+
+    private boolean link(long id, Precedents deps, boolean checked) {
+        if (deps.isEmpty()) {
+            removePrecedents(id);
+            return true;
+        }
+        if (deps.covers(id)) {
+            if (checked) return false;
+            return linkCyclic(id, deps);
+        }
+        if (!ordered()) {
+            if (checked && wouldCreateCycle(id, deps)) return false;
+            unlink(id);
+            addEdges(id, deps);
+            return true;
+        }
+
+        boolean added = !order.contains(id);
+        if (added && !hasDependents(id)) {
+            // Nothing reads a new leaf, so after every other cell it breaks no edge
+            unlink(id);
+            addEdges(id, deps);
+            order.addLast(id);
+            return true;
+        }
+        if (added) order.addFirst(id);
+        int last = order.lastPositionIn(deps);
+        long[] region = null;
+        if (last > order.position(id)) {
+            region = order.reach(id, last, this);
+            RecalcMetrics.cycleCheck(region.length);
+            for (long r : region) {
+                if (!deps.covers(r)) continue;
+                if (added) order.remove(id);
+                return checked ? false : linkCyclic(id, deps);
+            }
+        }
+        unlink(id);
+        addEdges(id, deps);
+        if (region != null) order.moveBehind(region, last);
+        return true;
+    }
+
+    private boolean hasDependents(long id) {
+        if (dependents.get(id) != null) return true;
+        boolean[] found = new boolean[1];
+        ranges.forEachContaining(CellId.row(id), CellId.col(id), d -> found[0] = true);
+        return found[0];
+    }
+
+    // Installs edges known to close a cycle; the order is dropped until a removal might have broken it
+    private boolean linkCyclic(long id, Precedents deps) {
+        unlink(id);
+        addEdges(id, deps);
+        ordered = false;
+        removalsAtFailure = removals;
+        return true;
+    }
+
+    private void addEdges(long id, Precedents deps) {
+        precedents.put(id, deps);
+        for (long dep : deps.cells) {
+            CellIdSet set = dependents.get(dep);
+            if (set == null) {
+                set = new CellIdSet();
+                dependents.put(dep, set);
+            }
+            set.add(id);
+        }
+        int[] r = deps.ranges;
+        for (int i = 0; i < r.length; i += 4) ranges.add(r[i], r[i + 1], r[i + 2], r[i + 3], id);
+    }
+
+    private void unlink(long id) {
+        Precedents old = precedents.remove(id);
+        if (old == null) return;
+        removals++;
+        for (long dep : old.cells) {
+            CellIdSet set = dependents.get(dep);
+            if (set == null) continue;
+            set.remove(id);
+            if (set.isEmpty()) dependents.remove(dep);
+        }
+        int[] r = old.ranges;
+        for (int i = 0; i < r.length; i += 4) ranges.remove(r[i], r[i + 1], r[i + 2], r[i + 3], id);
+    }
+
+    // Rebuilds a dropped order, but only retries after an edge removal could have broken the cycle
+    private boolean ordered() {
+        if (ordered || removals == removalsAtFailure) return ordered;
+        long[] sorted = sort(precedents.keysArray());
+        if (sorted == null) {
+            removalsAtFailure = removals;
+            return false;
+        }
+        order.reset(sorted);
+        ordered = true;
+        return true;
+    }
+
+    /**
+     * True if giving {@code cell} the precedents {@code deps} would close a cycle:
+     * either it reads itself, or it reads a cell that already depends on it.
+     */
+    boolean wouldCreateCycle(long cell, Precedents deps) {
+        if (deps.covers(cell)) return true;
+        CellIdSet visited = new CellIdSet();
+        CellIdSet next = new CellIdSet();
+        long[] stack = new long[16];
+        int top = 0;
+        stack[top++] = cell;
+        visited.add(cell);
+        while (top > 0) {
+            long current = stack[--top];
+            next.clear();
+            forEachDependent(current, next::add);
+            for (long d : next.toArray()) {
+                if (!visited.add(d)) continue;
+                if (deps.covers(d)) {
+                    RecalcMetrics.cycleCheck(visited.size());
+                    return true;
+                }
+                if (top == stack.length) stack = Arrays.copyOf(stack, top * 2);
+                stack[top++] = d;
+            }
+        }
+        RecalcMetrics.cycleCheck(visited.size());
+        return false;
+    }
+
+    /**
+     * {@code id} followed by every cell that transitively reads it, each listed
+     * once. Uses an explicit work list, so depth is bounded by heap only.
+     */
+    long[] downstreamOf(long id) {
+        return downstreamOf(new long[]{id});
+    }
+
+    /** Every root followed by every cell that transitively reads any of them, each listed once. */
+    long[] downstreamOf(long[] roots) {
+        Walk walk = new Walk();
+        for (long id : roots) walk.accept(id);
+        for (int i = 0; i < walk.size; i++) forEachDependent(walk.ids[i], walk);
+        return Arrays.copyOf(walk.ids, walk.size);
+    }
+
+    /**
+     * {@code roots} and everything downstream of them in topological order, or
+     * null if they reach a cycle. Depth-first over dependents with an explicit
+     * stack; reverse post-order puts every cell before the formulas reading it.
+     */
+    private long[] sort(long[] roots) {
+        CellIdSet onPath = new CellIdSet();
+        CellIdSet done = new CellIdSet();
+        CellIdSet next = new CellIdSet();
+        long[] node = new long[16];
+        long[][] children = new long[16][];
+        int[] pos = new int[16];
+        long[] post = new long[Math.max(16, roots.length)];
+        int finished = 0;
+
+        for (long root : roots) {
+            if (done.contains(root)) continue;
+            node[0] = root;
+            children[0] = dependentsArray(root, next);
+            pos[0] = 0;
+            onPath.add(root);
+            int top = 1;
+            while (top > 0) {
+                int f = top - 1;
+                if (pos[f] == children[f].length) {
+                    onPath.remove(node[f]);
+                    done.add(node[f]);
+                    if (finished == post.length) post = Arrays.copyOf(post, finished * 2);
+                    post[finished++] = node[f];
+                    children[f] = null;
+                    top--;
+                    continue;
+                }
+                long d = children[f][pos[f]++];
+                if (onPath.contains(d)) return null;
+                if (done.contains(d)) continue;
+                if (top == node.length) {
+                    node = Arrays.copyOf(node, top * 2);
+                    children = Arrays.copyOf(children, top * 2);
+                    pos = Arrays.copyOf(pos, top * 2);
+                }
+                node[top] = d;
+                children[top] = dependentsArray(d, next);
+                pos[top] = 0;
+                onPath.add(d);
+                top++;
+            }
+        }
+        long[] out = new long[finished];
+        for (int i = 0; i < finished; i++) out[i] = post[finished - 1 - i];
+        return out;
+    }
+
+    private long[] dependentsArray(long id, CellIdSet scratch) {
+        scratch.clear();
+        forEachDependent(id, scratch::add);
+        return scratch.toArray();
+    }
+
+    /** Work list for downstreamOf; doubles as the visitor that enqueues unseen dependents. */
+    private static final class Walk implements LongConsumer {
+        final CellIdSet seen = new CellIdSet();
+        long[] ids = new long[8];
+        int size;
+
+        @Override
+        public void accept(long id) {
+            if (!seen.add(id)) return;
+            if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+            ids[size++] = id;
+        }
+    }
+
+    int formulaCount() {
+        return precedents.size();
+    }
+
+    /** Cells that currently have at least one precedent, in row-major order. */
+    long[] formulaCells() {
+        long[] ids = precedents.keysArray();
+        Arrays.sort(ids);
+        return ids;
+    }
+}
@@ -0,0 +1,137 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded LRU cache of parsed and compiled formulas keyed by their
+ * position-relative shape. Copied-down formulas such as =A1*B1, =A2*B2, ...
+ * normalize to the same key, so they share one {@link Template} and each cell
+ * only keeps its own origin. The LRU order is kept per stripe of the key
+ * space, so eviction is approximate across stripes.
+ */
+final class FormulaCache {
+
+    static final int CAPACITY = Integer.getInteger("spreadsheet.formulaCacheSize", 10_000);
+
+    /** A formula shape with references relative to its origin. */
+    static final class Template {
+        final ParsedFormula parsed;
+        final CompiledFormula compiled;
+
+        Template(ParsedFormula parsed, CompiledFormula compiled) {
+            this.parsed = parsed;
+            this.compiled = compiled;
+        }
+    }
+
+    // Lookups come from every thread of a parallel load, so the LRU is split into
+    // independently locked stripes chosen by key hash; each keeps its share of CAPACITY
+    private static final int STRIPES = 16;
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static final Map<String, Template>[] TEMPLATES = new Map[STRIPES];
+    static {
+        int perStripe = Math.max(1, (CAPACITY + STRIPES - 1) / STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            TEMPLATES[i] = new LinkedHashMap<>(64, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Template> eldest) {
+                    return size() > perStripe;
+                }
+            };
+        }
+    }
+
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+
+    private FormulaCache() {}
+
+    /** Template for {@code raw} placed with origin (row, col); parses on a miss. */
+    static Template lookup(String raw, int row, int col) {
+        String key = key(raw, row, col);
+        Map<String, Template> stripe = stripe(key);
+        synchronized (stripe) {
+            Template t = stripe.get(key);
+            if (t != null) {
+                hits.increment();
+                return t;
+            }
+        }
+        misses.increment();
+        ParsedFormula parsed = new FormulaParser().parse(raw).relativeTo(row, col);
+        CompiledFormula compiled = FormulaCompiler.ENABLED ? FormulaCompiler.compile(parsed) : null;
+        Template t = new Template(parsed, compiled);
+        synchronized (stripe) {
+            Template raced = stripe.putIfAbsent(key, t);
+            return raced != null ? raced : t;
+        }
+    }
+
+    private static Map<String, Template> stripe(String key) {
+        int h = key.hashCode();
+        return TEMPLATES[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+
+    static double hitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    static String stats() {
+        int size = 0;
+        for (Map<String, Template> stripe : TEMPLATES) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return "formula cache: " + size + " templates, " + hits.sum() + " hits, " + misses.sum() + " misses";
+    }
+
+    static void clear() {
+        for (Map<String, Template> stripe : TEMPLATES) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
+        hits.reset();
+        misses.reset();
+    }
+
+    /**
+     * Rewrites every cell reference in {@code raw} as {dr,dc} relative to
+     * (row, col) and upper-cases letters, mirroring how FormulaTokenizer
+     * splits words, so formulas that differ only by position share a key.
+     */
+    static String key(String raw, int row, int col) {
+        StringBuilder sb = new StringBuilder(raw.length() + 8);
+        int i = 0;
+        int n = raw.length();
+        while (i < n) {
+            char ch = raw.charAt(i);
+            if (!Character.isLetter(ch)) {
+                sb.append(ch);
+                i++;
+                continue;
+            }
+            int start = i;
+            int label = 0;
+            while (i < n && Character.isLetter(raw.charAt(i))) {
+                char up = Character.toUpperCase(raw.charAt(i));
+                // Outside A-Z column labels do not map one-to-one; keep such formulas position-specific
+                if (up < 'A' || up > 'Z') return raw + '@' + row + ',' + col;
+                label = label * 26 + (up - 'A' + 1);
+                i++;
+            }
+            int digits = i;
+            while (i < n && Character.isDigit(raw.charAt(i))) i++;
+            if (digits == i) {
+                sb.append(raw.substring(start, i).toUpperCase());
+                continue;
+            }
+            int r = Integer.parseInt(raw, digits, i, 10);
+            sb.append('{').append(r - row).append(',').append(label - col).append('}');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,129 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Turns a formula's pre-resolved program into a tree of small lambdas, so
+ * evaluation is plain arithmetic over direct cell reads that the JIT can
+ * inline instead of a dispatch loop over opcodes.
+ *
+ * Compilation is best-effort: anything the interpreter would reject at
+ * evaluation time makes {@link #compile} return null, and the caller falls
+ * back to {@link PostfixEvaluator} so errors surface exactly as before.
+ */
+final class FormulaCompiler {
+
+    static final boolean ENABLED =
+            Boolean.parseBoolean(System.getProperty("spreadsheet.compileFormulas", "true"));
+
+    private FormulaCompiler() {}
+
+    /** Operand on the compile-time stack: a scalar expression, a range, or an argument marker. */
+    private static final class Node {
+        static final Node MARK = new Node(null, null);
+
+        final CompiledFormula scalar;
+        final int[] range;
+
+        Node(CompiledFormula scalar, int[] range) {
+            this.scalar = scalar;
+            this.range = range;
+        }
+    }
+
+    static CompiledFormula compile(ParsedFormula parsed) {
+        Deque<Node> stack = new ArrayDeque<>();
+        int[] code = parsed.code;
+        for (int i = 0; i < code.length; i++) {
+            Node node;
+            switch (code[i]) {
+                case ParsedFormula.NUMBER: {
+                    double v = parsed.numbers[i];
+                    node = new Node((sheet, row, col) -> v, null);
+                    break;
+                }
+                case ParsedFormula.CELL:
+                case ParsedFormula.RANGE:
+                    node = new Node(null, new int[]{
+                            parsed.cells[i * 4], parsed.cells[i * 4 + 1],
+                            parsed.cells[i * 4 + 2], parsed.cells[i * 4 + 3]});
+                    break;
+                case ParsedFormula.ADD:
+                case ParsedFormula.SUB:
+                case ParsedFormula.MUL:
+                case ParsedFormula.DIV:
+                    node = operator(code[i], stack);
+                    break;
+                case ParsedFormula.SUM:
+                case ParsedFormula.MIN:
+                case ParsedFormula.MAX:
+                case ParsedFormula.MEAN:
+                    node = function(code[i], stack);
+                    break;
+                case ParsedFormula.MARK:
+                    node = Node.MARK;
+                    break;
+                default:
+                    return null;
+            }
+            if (node == null) return null;
+            stack.push(node);
+        }
+        if (stack.size() != 1) return null;
+        return scalar(stack.pop());
+    }
+
+    private static Node operator(int op, Deque<Node> stack) {
+        if (stack.size() < 2) return null;
+        CompiledFormula b = scalar(stack.pop());
+        CompiledFormula a = scalar(stack.pop());
+        if (a == null || b == null) return null;
+        switch (op) {
+            case ParsedFormula.ADD: return new Node((sheet, row, col) -> a.evaluate(sheet, row, col) + b.evaluate(sheet, row, col), null);
+            case ParsedFormula.SUB: return new Node((sheet, row, col) -> a.evaluate(sheet, row, col) - b.evaluate(sheet, row, col), null);
+            case ParsedFormula.MUL: return new Node((sheet, row, col) -> a.evaluate(sheet, row, col) * b.evaluate(sheet, row, col), null);
+            default: return new Node((sheet, row, col) -> {
+                double x = a.evaluate(sheet, row, col);
+                double y = b.evaluate(sheet, row, col);
+                if (y == 0) throw new IllegalStateException("Division by zero");
+                return x / y;
+            }, null);
+        }
+    }
+
+    private static Node function(int op, Deque<Node> stack) {
+        List<Node> args = new ArrayList<>();
+        while (!stack.isEmpty()) {
+            Node top = stack.pop();
+            if (top == Node.MARK) break;
+            args.add(0, top);
+        }
+        if (args.isEmpty()) return null;
+
+        Node[] argv = args.toArray(new Node[0]);
+        return new Node((sheet, row, col) -> {
+            Aggregate agg = new Aggregate();
+            for (Node arg : argv) {
+                if (arg.scalar != null) {
+                    agg.add(arg.scalar.evaluate(sheet, row, col));
+                    continue;
+                }
+                int[] rg = arg.range;
+                sheet.aggregateRange(rg[0] + row, rg[1] + col, rg[2] + row, rg[3] + col, agg);
+            }
+            return agg.result(op);
+        }, null);
+    }
+
+    // A one-cell range is accepted wherever a scalar is, mirroring the interpreter.
+    private static CompiledFormula scalar(Node node) {
+        if (node == Node.MARK) return null;
+        if (node.scalar != null) return node.scalar;
+        int[] rg = node.range;
+        if (rg[0] != rg[2] || rg[1] != rg[3]) return null;
+        int dr = rg[0];
+        int dc = rg[1];
+        return (sheet, row, col) -> sheet.getCell(row + dr, col + dc).getContent().getNumericValue(sheet);
+    }
+}
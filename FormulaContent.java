@@ -2,32 +2,129 @@ class FormulaContent extends CellContent {
 
     private final String raw;
     private final ParsedFormula parsed;
-    private Double cachedValue;
+    private final CompiledFormula compiled;
+    // Origin the shared template's relative references are resolved against
+    private final int row;
+    private final int col;
+    // volatile so values computed by parallel recalculation are safely published to readers
+    private volatile Double cachedValue;
+    // Text as written to S2V files, built on first save
+    private String fileForm;
 
     public FormulaContent(String raw) {
-        this.raw = raw == null ? "" : raw;
-        this.parsed = new FormulaParser().parse(this.raw);
+        this(raw, 0, 0);
     }
 
+    /**
+     * Formula entered at (row, col). The position only picks the origin used to
+     * share the parsed template with formulas of the same relative shape; the
+     * references themselves stay absolute.
+     */
+    public FormulaContent(String raw, int row, int col) {
+        this(raw == null ? "" : raw, row, col, FormulaCache.lookup(raw == null ? "" : raw, row, col));
+    }
+
+    /** Formula whose template is already known, e.g. read back from a snapshot. */
+    FormulaContent(String raw, int row, int col, FormulaCache.Template t) {
+        this.raw = raw;
+        this.parsed = t.parsed;
+        this.compiled = t.compiled;
+        this.row = row;
+        this.col = col;
+    }
+
+    private FormulaContent(FormulaContent source) {
+        this.raw = source.raw;
+        this.parsed = source.parsed;
+        this.compiled = source.compiled;
+        this.row = source.row;
+        this.col = source.col;
+        this.fileForm = source.fileForm;
+    }
+
+    /** The same formula with nothing cached, for a sheet version that must not touch this one's value. */
+    FormulaContent copy() {
+        return new FormulaContent(this);
+    }
+
+    /** The shared template; its coordinates are relative to this formula's origin. */
     ParsedFormula getParsed() {
         return parsed;
     }
 
+    int originRow() {
+        return row;
+    }
+
+    int originCol() {
+        return col;
+    }
+
+    /** Absolute 1-based (r1, c1, r2, c2) quadruples of every referenced cell or range. */
+    int[] references() {
+        return ParsedFormula.shift(parsed.references, row, col);
+    }
+
     void clearCache() {
         cachedValue = null;
     }
 
     @Override public String getRaw() { return raw; }
 
+    @Override public boolean isEmpty() { return raw.isEmpty(); }
+
+    /** The raw text with argument separators in S2V form; computed once per cell. */
+    String fileForm() {
+        String f = fileForm;
+        if (f == null) {
+            f = raw.indexOf(';') < 0 ? raw : S2VSerializer.convertSemicolonToCommaInParens(raw);
+            fileForm = f;
+        }
+        return f;
+    }
+
     @Override public String getType() { return "FORMULA"; }
 
+    boolean hasCachedValue() {
+        return cachedValue != null;
+    }
+
+    /** Last computed value, or null if the formula has not been evaluated since its inputs changed. */
+    Double cachedValue() {
+        return cachedValue;
+    }
+
+    // Seeds the value saved alongside the formula so opening a snapshot needs no recalculation
+    void restoreCachedValue(double value) {
+        cachedValue = value;
+    }
+
     @Override
     public double getNumericValue(Spreadsheet sheet) {
-        if (cachedValue != null) return cachedValue;
+        Double v = cachedValue;
+        if (v != null) {
+            RecalcMetrics.cacheHit();
+            return v;
+        }
+        RecalcMetrics.cacheMiss();
+        return sheet.evaluate(this);
+    }
 
-        PostfixEvaluator evaluator = new PostfixEvaluator(sheet);
-        cachedValue = evaluator.evaluate(parsed.postfix);
-        return cachedValue;
+    // Called by RecalcEngine once every formula this one reads is cached.
+    void computeValue(Spreadsheet sheet) {
+        RecalcMetrics.evaluated();
+        SheetEvents.SlowFormula event = new SheetEvents.SlowFormula();
+        event.begin();
+        if (compiled != null) cachedValue = compiled.evaluate(sheet, row, col);
+        else cachedValue = PostfixEvaluator.forCurrentThread().evaluate(parsed, row, col, sheet);
+        if (event.shouldCommit()) {
+            int[] refs = references();
+            event.cell = row > 0 ? CellId.toCoord(CellId.of(row, col)) : null;
+            event.formula = raw;
+            event.dependencies = refs.length / 4;
+            event.rangeCells = SheetEvents.rangeCells(refs);
+            event.commit();
+        }
     }
 
     @Override
@@ -0,0 +1,52 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of non-negative longs: 8 linear sub-buckets per power of
+ * two, so any percentile is within 12.5% of the true value.
+ */
+final class Histogram {
+
+    private static final int SUB_BITS = 3;
+    private final AtomicLongArray buckets = new AtomicLongArray(64 << SUB_BITS);
+
+    void record(long value) {
+        buckets.incrementAndGet(bucket(Math.max(0, value)));
+    }
+
+    long count() {
+        long n = 0;
+        for (int i = 0; i < buckets.length(); i++) n += buckets.get(i);
+        return n;
+    }
+
+    /** Upper bound of the bucket holding the given fraction of values, or 0 if none were recorded. */
+    long percentile(double fraction) {
+        long total = count();
+        if (total == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(total * fraction));
+        long seen = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            seen += buckets.get(i);
+            if (seen >= target) return upperBound(i);
+        }
+        return upperBound(buckets.length() - 1);
+    }
+
+    void reset() {
+        for (int i = 0; i < buckets.length(); i++) buckets.set(i, 0);
+    }
+
+    private static int bucket(long v) {
+        int exp = 63 - Long.numberOfLeadingZeros(v);
+        if (exp < SUB_BITS) return (int) v;
+        int sub = (int) (v >>> (exp - SUB_BITS)) & ((1 << SUB_BITS) - 1);
+        return ((exp - SUB_BITS + 1) << SUB_BITS) + sub;
+    }
+
+    private static long upperBound(int bucket) {
+        if (bucket < (1 << SUB_BITS)) return bucket;
+        int exp = (bucket >>> SUB_BITS) + SUB_BITS - 1;
+        long sub = bucket & ((1 << SUB_BITS) - 1);
+        return ((1L << SUB_BITS | sub) + 1 << (exp - SUB_BITS)) - 1;
+    }
+}
@@ -0,0 +1,170 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Storage over a memory-mapped S2V file. Opening only records where each row
+ * starts; a row is parsed into cells the first time any of its cells is read
+ * or written, and from then on lives in an ordinary {@link TiledStorage}. Rows
+ * nobody touches never cost more than their 8-byte offset.
+ */
+final class LazyS2VStorage implements SpreadsheetStorage {
+
+    private static final int SEGMENT_BITS = 30;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+
+    private final MappedByteBuffer[] segments;
+    // rowStart[r] is the file offset of row r; rowStart[fileRows] is the end of the data
+    private final long[] rowStart;
+    private final int fileRows;
+    private final long[] loaded;
+    private final TiledStorage cells;
+    private CellVisitor onFormulaLoaded = (r, c, cell) -> {};
+    private int loadedRows;
+    private byte[] field = new byte[256];
+
+    private LazyS2VStorage(MappedByteBuffer[] segments, long[] rowStart, int fileRows, int cols) {
+        this.segments = segments;
+        this.rowStart = rowStart;
+        this.fileRows = fileRows;
+        this.loaded = new long[(fileRows + 63) >>> 6];
+        this.cells = new TiledStorage(Math.max(1, fileRows), Math.max(1, cols));
+    }
+
+    /** Maps {@code path} and indexes its rows in one pass; no cell is parsed yet. */
+    static LazyS2VStorage open(Path path) throws IOException {
+        MappedByteBuffer[] segments;
+        long size;
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            size = ch.size();
+            segments = new MappedByteBuffer[(int) ((size + SEGMENT_MASK) >>> SEGMENT_BITS)];
+            for (int i = 0; i < segments.length; i++) {
+                long from = (long) i << SEGMENT_BITS;
+                segments[i] = ch.map(FileChannel.MapMode.READ_ONLY, from, Math.min(size - from, 1L << SEGMENT_BITS));
+            }
+        }
+
+        long[] starts = new long[1024];
+        int rows = 0;
+        int fields = 1;
+        int cols = 0;
+        boolean inRow = false;
+        boolean afterCr = false;
+        long pos = 0;
+        for (MappedByteBuffer seg : segments) {
+            for (int i = 0, n = seg.limit(); i < n; i++, pos++) {
+                byte b = seg.get(i);
+                if (afterCr) {
+                    afterCr = false;
+                    if (b == '\n') {
+                        starts[rows] = pos + 1;
+                        continue;
+                    }
+                }
+                if (b == ';') {
+                    fields++;
+                    inRow = true;
+                } else if (b == '\n' || b == '\r') {
+                    cols = Math.max(cols, fields);
+                    if (++rows == starts.length) starts = Arrays.copyOf(starts, rows * 2);
+                    starts[rows] = pos + 1;
+                    fields = 1;
+                    inRow = false;
+                    afterCr = b == '\r';
+                } else {
+                    inRow = true;
+                }
+            }
+        }
+        if (inRow) {
+            cols = Math.max(cols, fields);
+            if (++rows == starts.length) starts = Arrays.copyOf(starts, rows + 1);
+            starts[rows] = size;
+        }
+        return new LazyS2VStorage(segments, Arrays.copyOf(starts, rows + 1), rows, cols);
+    }
+
+    /** Called with every formula cell as its row is parsed, so the sheet can register its dependencies. */
+    void onFormulaLoaded(CellVisitor listener) {
+        this.onFormulaLoaded = listener;
+    }
+
+    /** Rows parsed so far. */
+    int loadedRowCount() {
+        return loadedRows;
+    }
+
+    @Override public int getRowCount() { return cells.getRowCount(); }
+    @Override public int getColCount() { return cells.getColCount(); }
+    @Override public boolean isGrowable() { return true; }
+    @Override public boolean isFullyLoaded() { return loadedRows == fileRows; }
+
+    @Override
+    public Cell getCell(int row0, int col0) {
+        ensureLoaded(row0);
+        return cells.getCell(row0, col0);
+    }
+
+    @Override
+    public void setCell(int row0, int col0, Cell cell) {
+        // Parse first so the file's version of the row cannot later overwrite this write
+        ensureLoaded(row0);
+        cells.setCell(row0, col0, cell);
+    }
+
+    @Override
+    public Iterable<Cell[]> rowsIterable() {
+        loadAll();
+        return cells.rowsIterable();
+    }
+
+    @Override
+    public void forEachCell(CellVisitor visitor) {
+        loadAll();
+        cells.forEachCell(visitor);
+    }
+
+    private void loadAll() {
+        for (int r = 0; r < fileRows; r++) ensureLoaded(r);
+    }
+
+    private void ensureLoaded(int row0) {
+        if (row0 < 0 || row0 >= fileRows) return;
+        long bit = 1L << row0;
+        if ((loaded[row0 >>> 6] & bit) != 0) return;
+        loaded[row0 >>> 6] |= bit;
+        loadedRows++;
+
+        int col = 0;
+        int len = 0;
+        for (long pos = rowStart[row0], end = rowStart[row0 + 1]; pos < end; pos++) {
+            byte b = byteAt(pos);
+            if (b == '\n' || b == '\r') break;
+            if (b == ';') {
+                put(row0, col++, len);
+                len = 0;
+                continue;
+            }
+            if (len == field.length) field = Arrays.copyOf(field, len * 2);
+            field[len++] = b;
+        }
+        put(row0, col, len);
+    }
+
+    private void put(int row0, int col0, int len) {
+        if (len == 0) return;
+        String raw = new String(field, 0, len, StandardCharsets.UTF_8);
+        if (raw.startsWith("=") && raw.indexOf(',') >= 0) raw = S2VSerializer.convertCommaToSemicolonInParens(raw);
+        Cell cell = new Cell(CellContentFactory.fromRaw(raw, row0 + 1, col0 + 1));
+        cells.setCell(row0, col0, cell);
+        if (cell.getContent() instanceof FormulaContent) onFormulaLoaded.visit(row0, col0, cell);
+    }
+
+    private byte byteAt(long pos) {
+        return segments[(int) (pos >>> SEGMENT_BITS)].get((int) (pos & SEGMENT_MASK));
+    }
+}
@@ -1,13 +1,45 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Scanner;
 
 public class Main {
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        // Served sheets always publish metrics (switched off until asked for); other modes only with -Dspreadsheet.metrics=true
+        if (RecalcMetrics.enabled()) RecalcMetrics.register();
+        if (args.length > 0 && args[0].equals("--serve")) {
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+            Path root = Paths.get(args.length > 2 ? args[2] : ".");
+            RecalcMetrics.register();
+            SpreadsheetServer server = SpreadsheetServer.start(port, root);
+            System.out.println("Serving on 127.0.0.1:" + server.port() + ", files under " + root.toAbsolutePath());
+            return;
+        }
+
+        if (args.length > 0 && args[0].equals("--batch")) {
+            // Script from a file, or from stdin when none is named; exits non-zero if any line failed
+            try (BufferedReader in = args.length > 1
+                    ? Files.newBufferedReader(Paths.get(args[1]))
+                    : new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8), 1 << 16)) {
+                Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+                if (new BatchMode(out).run(in) > 0) System.exit(1);
+            }
+            return;
+        }
+
         Scanner sc = new Scanner(System.in);
         Spreadsheet sheet = null;
         S2VSerializer serializer = new S2VSerializer();
+        SnapshotSerializer snapshots = new SnapshotSerializer();
+        ChangeJournal journal = null;
 
         while (true) {
             printMenu();
@@ -21,7 +53,9 @@ public class Main {
                         int rows = Integer.parseInt(sc.nextLine());
                         System.out.print("Cols: ");
                         int cols = Integer.parseInt(sc.nextLine());
-                        sheet = new Spreadsheet(rows, cols);
+                        Spreadsheet next = new Spreadsheet(rows, cols);
+                        journal = closeJournal(journal);
+                        sheet = next;
                         System.out.println("Spreadsheet created.");
                     }
 
@@ -47,7 +81,7 @@ public class Main {
                             case "3" -> {
                                 System.out.print("Formula (=...): ");
                                 String f = sc.nextLine();
-                                content = CellContentFactory.createFormula(f);
+                                content = CellContentFactory.createFormula(f, rc[0], rc[1]);
                             }
                             default -> throw new IllegalArgumentException("Invalid type");
                         }
@@ -92,21 +126,48 @@ public class Main {
                         requireSheet(sheet);
                         System.out.print("Save path: ");
                         Path p = Paths.get(sc.nextLine());
-                        serializer.save(sheet, p);
+                        if (isSnapshot(p)) snapshots.save(sheet, p);
+                        else serializer.save(sheet, p);
                         System.out.println("Saved.");
                     }
 
                     case "7" -> {
                         System.out.print("Load path: ");
                         Path p = Paths.get(sc.nextLine());
-                        if (sheet == null) sheet = new Spreadsheet(10, 10);
-                        serializer.load(sheet, p);
-                        sheet.clearAllFormulaCaches();
-                        sheet.recomputeAll();
+                        Spreadsheet next = isSnapshot(p) ? snapshots.load(p) : serializer.load(p);
+                        journal = closeJournal(journal);
+                        sheet = next;
                         System.out.println("Loaded.");
                     }
 
+                    case "9" -> {
+                        System.out.print("Open path: ");
+                        Path p = Paths.get(sc.nextLine());
+                        Spreadsheet next = serializer.openLazy(p);
+                        journal = closeJournal(journal);
+                        sheet = next;
+                        System.out.println("Opened; rows are read as they are used.");
+                    }
+
+                    case "10" -> {
+                        System.out.print("Checkpoint path: ");
+                        Path p = Paths.get(sc.nextLine());
+                        journal = closeJournal(journal);
+                        ChangeJournal.Durability mode = ChangeJournal.Durability.valueOf(
+                                System.getProperty("spreadsheet.journalDurability", "GROUP"));
+                        if (Files.exists(p)) {
+                            journal = ChangeJournal.open(p, mode);
+                            sheet = journal.sheet();
+                            System.out.println("Checkpoint and journal replayed; edits are journaled.");
+                        } else {
+                            requireSheet(sheet);
+                            journal = ChangeJournal.create(sheet, p, mode);
+                            System.out.println("Checkpoint written; edits are journaled.");
+                        }
+                    }
+
                     case "8" -> {
+                        if (journal != null) journal.close();
                         sc.close();
                         return;
                     }
@@ -119,6 +180,19 @@ public class Main {
         }
     }
 
+    // *.s2vb files are binary snapshots, anything else is S2V text
+    static boolean isSnapshot(Path p) {
+        return p.getFileName().toString().toLowerCase().endsWith(".s2vb");
+    }
+
+    // A journal belongs to the sheet it was opened on; replacing that sheet ends it
+    private static ChangeJournal closeJournal(ChangeJournal journal) throws IOException {
+        if (journal == null) return null;
+        journal.close();
+        System.out.println("Journal closed.");
+        return null;
+    }
+
     private static void requireSheet(Spreadsheet sheet) {
         if (sheet == null)
             throw new IllegalStateException("Create a spreadsheet first.");
@@ -135,6 +209,8 @@ public class Main {
             6) Save
             7) Load
             8) Exit
+            9) Open large file lazily
+            10) Journal edits (open or create checkpoint)
             """);
     }
 }
@@ -8,6 +8,9 @@ class NumericContent extends CellContent {
 
     @Override public String getRaw() { return Double.toString(value); }
 
+    // A number is never empty; avoids formatting it just to find that out.
+    @Override public boolean isEmpty() { return false; }
+
     @Override public String getType() { return "NUMERIC"; }
 
     @Override public double getNumericValue(Spreadsheet sheet) { return value; }
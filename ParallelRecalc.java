@@ -0,0 +1,170 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Recomputes every formula by splitting the dependency DAG into levels: a
+ * formula's level is one more than the highest level among the formulas it
+ * reads. Formulas within a level are independent, so each level is evaluated
+ * as a fork/join task over the pool, and the join at the end of a level
+ * publishes its cached values to the next one.
+ */
+final class ParallelRecalc {
+
+    // Smallest slice of a level handed to one fork/join task.
+    private static final int BATCH = 256;
+
+    private static final int UNVISITED = -1;
+    private static final int IN_PROGRESS = -2;
+
+    private final Spreadsheet sheet;
+    private final DependencyGraph graph;
+    private final long[] ids;
+    private final FormulaContent[] formulas;
+
+    ParallelRecalc(Spreadsheet sheet, DependencyGraph graph) {
+        this.sheet = sheet;
+        this.graph = graph;
+        this.ids = graph.formulaCells();
+        this.formulas = new FormulaContent[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            CellContent cc = sheet.getCell(CellId.row(ids[i]), CellId.col(ids[i])).getContent();
+            if (cc instanceof FormulaContent fc) formulas[i] = fc;
+        }
+    }
+
+    void run(ForkJoinPool pool) {
+        int[][] levels = levels();
+        sheet.clearAllFormulaCaches();
+        for (int[] level : levels) {
+            pool.invoke(new LevelTask(level, 0, level.length));
+        }
+    }
+
+    @SuppressWarnings("serial") // never serialized
+    private final class LevelTask extends RecursiveAction {
+        private final int[] level;
+        private final int from;
+        private final int to;
+
+        LevelTask(int[] level, int from, int to) {
+            this.level = level;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BATCH) {
+                for (int i = from; i < to; i++) {
+                    FormulaContent fc = formulas[level[i]];
+                    if (fc != null) fc.computeValue(sheet);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new LevelTask(level, from, mid), new LevelTask(level, mid, to));
+        }
+    }
+
+    /** Indices into {@link #ids}, grouped by level in ascending order. */
+    int[][] levels() {
+        int n = ids.length;
+        int[] level = new int[n];
+        Arrays.fill(level, UNVISITED);
+
+        // Explicit DFS stack; each frame remembers its node and the highest input level so far.
+        int[] node = new int[16];
+        int[] best = new int[16];
+        int[][] inputs = new int[16][];
+        int[] cursor = new int[16];
+        int maxLevel = -1;
+
+        for (int start = 0; start < n; start++) {
+            if (level[start] != UNVISITED) continue;
+            int top = 0;
+            node[0] = start;
+            best[0] = -1;
+            inputs[0] = formulaInputs(start);
+            cursor[0] = 0;
+            level[start] = IN_PROGRESS;
+
+            while (top >= 0) {
+                int[] in = inputs[top];
+                if (cursor[top] < in.length) {
+                    int j = in[cursor[top]++];
+                    if (level[j] == IN_PROGRESS)
+                        throw new IllegalStateException("Circular dependency detected");
+                    if (level[j] >= 0) {
+                        best[top] = Math.max(best[top], level[j]);
+                        continue;
+                    }
+                    if (++top == node.length) {
+                        int cap = top * 2;
+                        node = Arrays.copyOf(node, cap);
+                        best = Arrays.copyOf(best, cap);
+                        inputs = Arrays.copyOf(inputs, cap);
+                        cursor = Arrays.copyOf(cursor, cap);
+                    }
+                    node[top] = j;
+                    best[top] = -1;
+                    inputs[top] = formulaInputs(j);
+                    cursor[top] = 0;
+                    level[j] = IN_PROGRESS;
+                    continue;
+                }
+                int done = best[top] + 1;
+                level[node[top]] = done;
+                inputs[top] = null;
+                maxLevel = Math.max(maxLevel, done);
+                if (--top >= 0) best[top] = Math.max(best[top], done);
+            }
+        }
+
+        int[] counts = new int[maxLevel + 1];
+        for (int l : level) counts[l]++;
+        int[][] out = new int[maxLevel + 1][];
+        for (int l = 0; l <= maxLevel; l++) out[l] = new int[counts[l]];
+        int[] fill = new int[maxLevel + 1];
+        for (int i = 0; i < n; i++) out[level[i]][fill[level[i]]++] = i;
+        return out;
+    }
+
+    /** Positions in {@link #ids} of the graph formulas that formula {@code i} reads. */
+    private int[] formulaInputs(int i) {
+        DependencyGraph.Precedents p = graph.precedentsOf(ids[i]);
+        int[] out = new int[p.cells.length];
+        int n = 0;
+        for (long cell : p.cells) {
+            int j = Arrays.binarySearch(ids, cell);
+            if (j >= 0) out[n++] = j;
+        }
+        int[] r = p.ranges;
+        for (int k = 0; k < r.length; k += 4) {
+            if (r[k + 2] - r[k] + 1 >= AggregateIndex.THRESHOLD) {
+                // Tall range: let the aggregate index skip the rows holding no formula or text
+                for (int col = r[k + 1]; col <= r[k + 3]; col++) {
+                    for (int row = sheet.nextNonConstantRow(col, r[k], r[k + 2]); row > 0;
+                         row = row < r[k + 2] ? sheet.nextNonConstantRow(col, row + 1, r[k + 2]) : -1) {
+                        int j = Arrays.binarySearch(ids, CellId.of(row, col));
+                        if (j < 0) continue;
+                        if (n == out.length) out = Arrays.copyOf(out, Math.max(4, n * 2));
+                        out[n++] = j;
+                    }
+                }
+                continue;
+            }
+            for (int row = r[k]; row <= r[k + 2]; row++) {
+                // ids are sorted row-major, so one row of the rectangle is a contiguous run
+                int j = Arrays.binarySearch(ids, CellId.of(row, r[k + 1]));
+                if (j < 0) j = -j - 1;
+                long last = CellId.of(row, r[k + 3]);
+                for (; j < ids.length && ids[j] <= last; j++) {
+                    if (n == out.length) out = Arrays.copyOf(out, Math.max(4, n * 2));
+                    out[n++] = j;
+                }
+            }
+        }
+        return n == out.length ? out : Arrays.copyOf(out, n);
+    }
+}
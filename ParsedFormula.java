@@ -1,14 +1,183 @@
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
+/**
+ * A parsed formula. Reference coordinates in {@link #references} and
+ * {@link #cells} are relative to an origin chosen by whoever holds the formula
+ * (see {@link #relativeTo}); a formula parsed on its own uses origin (0, 0),
+ * so its coordinates are plain absolute 1-based indices.
+ */
 final class ParsedFormula {
+
+    // Opcodes of the pre-resolved program, one per postfix token
+    static final int NUMBER = 0;
+    static final int CELL = 1;
+    static final int RANGE = 2;
+    static final int ADD = 3;
+    static final int SUB = 4;
+    static final int MUL = 5;
+    static final int DIV = 6;
+    static final int MARK = 7;
+    static final int SUM = 8;
+    static final int MIN = 9;
+    static final int MAX = 10;
+    static final int MEAN = 11;
+    static final int BAD_NUMBER = 12;
+    static final int BAD_OPERATOR = 13;
+    static final int BAD_FUNCTION = 14;
+    static final int BAD_TOKEN = 15;
+
     final List<Token> postfix;
     final Set<String> referencedCells;
+    // referencedCells resolved to (r1, c1, r2, c2) quadruples, corners normalized
+    final int[] references;
+
+    // postfix resolved once: opcode, literal value and (r1, c1, r2, c2) per token position
+    final int[] code;
+    final double[] numbers;
+    final int[] cells;
+    final int maxDepth;
 
     ParsedFormula(List<Token> postfix, Set<String> referencedCells) {
         this.postfix = postfix;
         this.referencedCells = referencedCells;
+        this.references = resolve(referencedCells);
+
+        int n = postfix.size();
+        this.code = new int[n];
+        this.numbers = new double[n];
+        this.cells = new int[n * 4];
+        int depth = 0;
+        int max = 0;
+        for (int i = 0; i < n; i++) {
+            Token t = postfix.get(i);
+            code[i] = opcode(t, i);
+            depth = code[i] >= ADD && code[i] <= DIV ? depth - 1 : depth + 1;
+            max = Math.max(max, depth);
+        }
+        this.maxDepth = max;
+    }
+
+    /** Rebuilds a formula from its already resolved parts, e.g. when reading a snapshot. */
+    ParsedFormula(List<Token> postfix, Set<String> referencedCells, int[] references,
+                  int[] code, double[] numbers, int[] cells, int maxDepth) {
+        this.postfix = postfix;
+        this.referencedCells = referencedCells;
+        this.references = references;
+        this.code = code;
+        this.numbers = numbers;
+        this.cells = cells;
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * The same formula with every reference shifted so that (row, col) becomes
+     * the origin. Reference texts in {@link #postfix} and
+     * {@link #referencedCells} are re-spelled relative too, as {dr,dc}, so a
+     * template shared by many cells carries no one cell's coordinates.
+     */
+    ParsedFormula relativeTo(int row, int col) {
+        int[] refs = shift(references, -row, -col);
+        int[] shifted = shift(cells, -row, -col);
+        List<Token> tokens = new ArrayList<>(postfix.size());
+        for (int i = 0; i < postfix.size(); i++) {
+            Token t = postfix.get(i);
+            boolean ref = code[i] == CELL || code[i] == RANGE;
+            tokens.add(ref ? new Token(t.type, relativeText(shifted, i * 4, code[i] == RANGE)) : t);
+        }
+        Set<String> referenced = new LinkedHashSet<>();
+        for (int k = 0; k < refs.length; k += 4) {
+            referenced.add(relativeText(refs, k, refs[k] != refs[k + 2] || refs[k + 1] != refs[k + 3]));
+        }
+        return new ParsedFormula(tokens, referenced, refs, code, numbers, shifted, maxDepth);
+    }
+
+    // The (r1, c1, r2, c2) quadruple at k as {r1,c1}, or {r1,c1}:{r2,c2} for a range
+    private static String relativeText(int[] quads, int k, boolean range) {
+        String first = "{" + quads[k] + "," + quads[k + 1] + "}";
+        return range ? first + ":{" + quads[k + 2] + "," + quads[k + 3] + "}" : first;
+    }
+
+    /** Copy of (r1, c1, r2, c2) quadruples moved by (dr, dc). */
+    static int[] shift(int[] quads, int dr, int dc) {
+        if (dr == 0 && dc == 0) return quads;
+        int[] out = quads.clone();
+        for (int i = 0; i < out.length; i += 4) {
+            out[i] += dr;
+            out[i + 1] += dc;
+            out[i + 2] += dr;
+            out[i + 3] += dc;
+        }
+        return out;
     }
-}
 
+    private int opcode(Token t, int i) {
+        switch (t.type) {
+            case NUMBER:
+                try {
+                    numbers[i] = Double.parseDouble(t.text);
+                    return NUMBER;
+                } catch (NumberFormatException ex) {
+                    return BAD_NUMBER;
+                }
+            case CELL_REF: {
+                int sep = t.text.indexOf(':');
+                int[] start = Spreadsheet.coordToIndices(sep < 0 ? t.text : t.text.substring(0, sep));
+                int[] end = sep < 0 ? start : Spreadsheet.coordToIndices(t.text.substring(sep + 1));
+                cells[i * 4] = Math.min(start[0], end[0]);
+                cells[i * 4 + 1] = Math.min(start[1], end[1]);
+                cells[i * 4 + 2] = Math.max(start[0], end[0]);
+                cells[i * 4 + 3] = Math.max(start[1], end[1]);
+                return sep < 0 ? CELL : RANGE;
+            }
+            case OPERATOR:
+                switch (t.text) {
+                    case "+": return ADD;
+                    case "-": return SUB;
+                    case "*": return MUL;
+                    case "/": return DIV;
+                    default: return BAD_OPERATOR;
+                }
+            case FUNCTION:
+                switch (t.text.toUpperCase()) {
+                    case "SUM": return SUM;
+                    case "MIN": return MIN;
+                    case "MAX": return MAX;
+                    case "MEAN": return MEAN;
+                    default: return BAD_FUNCTION;
+                }
+            case ARG_MARKER:
+                return MARK;
+            default:
+                return BAD_TOKEN;
+        }
+    }
+
+    /** Upper-case name of a function opcode, for error messages. */
+    static String functionName(int opcode) {
+        switch (opcode) {
+            case SUM: return "SUM";
+            case MIN: return "MIN";
+            case MAX: return "MAX";
+            case MEAN: return "MEAN";
+            default: throw new IllegalArgumentException("Not a function opcode: " + opcode);
+        }
+    }
 
+    private static int[] resolve(Set<String> refs) {
+        int[] out = new int[refs.size() * 4];
+        int n = 0;
+        for (String ref : refs) {
+            int sep = ref.indexOf(':');
+            int[] start = Spreadsheet.coordToIndices(sep < 0 ? ref : ref.substring(0, sep));
+            int[] end = sep < 0 ? start : Spreadsheet.coordToIndices(ref.substring(sep + 1));
+            out[n++] = Math.min(start[0], end[0]);
+            out[n++] = Math.min(start[1], end[1]);
+            out[n++] = Math.max(start[0], end[0]);
+            out[n++] = Math.max(start[1], end[1]);
+        }
+        return out;
+    }
+}
@@ -1,233 +1,165 @@
-import java.util.ArrayDeque;
-import java.util.ArrayList;
-import java.util.Deque;
-import java.util.List;
-
+import java.util.Arrays;
+
+/**
+ * Interprets the pre-resolved program of a {@link ParsedFormula}. Operands live
+ * on a primitive stack; a range stays a reference to its (r1, c1, r2, c2) until
+ * a function streams over it, so steady-state evaluation allocates nothing.
+ * Instances are reusable but not reentrant; use {@link #forCurrentThread()}.
+ */
 class PostfixEvaluator {
 
-    private final Spreadsheet sheet;
-    private static final List<Double> ARG_MARK = List.of();
-
-
-    public PostfixEvaluator(Spreadsheet sheet) {
-        this.sheet = sheet;
+    // Slot kinds besides a plain scalar (>= 0 means "range, cells at this program index")
+    private static final int SCALAR = -1;
+    private static final int ARG_MARK = -2;
+
+    private static final ThreadLocal<PostfixEvaluator> PER_THREAD =
+            ThreadLocal.withInitial(PostfixEvaluator::new);
+
+    private double[] values = new double[16];
+    private int[] kinds = new int[16];
+    private int top;
+    private int rowOffset;
+    private int colOffset;
+    private final Aggregate aggregate = new Aggregate();
+    private boolean busy;
+
+    /** The calling thread's evaluator, or a fresh one if it is already mid-evaluation. */
+    static PostfixEvaluator forCurrentThread() {
+        PostfixEvaluator e = PER_THREAD.get();
+        return e.busy ? new PostfixEvaluator() : e;
     }
 
-    private double parseNumber(Token token) {
+    /** Evaluates {@code f} with its relative references resolved against origin (row, col). */
+    public double evaluate(ParsedFormula f, int row, int col, Spreadsheet sheet) {
+        busy = true;
+        top = 0;
+        rowOffset = row;
+        colOffset = col;
         try {
-            return Double.parseDouble(token.text);
-        } catch (NumberFormatException ex) {
-            throw new IllegalStateException(
-                    "Invalid numeric literal: " + token.text
-            );
-        }
-    }
-
-
-
-    private void applyFunction(Token token, Deque<List<Double>> stack) {
-        List<Double> allValues = new ArrayList<>();
-
-        while (!stack.isEmpty()) {
-            List<Double> top = stack.pop();
-
-
-            if (top == ARG_MARK) {
-                break;
+            if (values.length < f.maxDepth) {
+                values = Arrays.copyOf(values, f.maxDepth);
+                kinds = Arrays.copyOf(kinds, f.maxDepth);
+            }
+            int[] code = f.code;
+            for (int i = 0; i < code.length; i++) {
+                switch (code[i]) {
+                    case ParsedFormula.NUMBER:
+                        push(f.numbers[i], SCALAR);
+                        break;
+                    case ParsedFormula.CELL:
+                        push(sheet.getCell(f.cells[i * 4] + rowOffset, f.cells[i * 4 + 1] + colOffset)
+                                .getContent().getNumericValue(sheet), SCALAR);
+                        break;
+                    case ParsedFormula.RANGE:
+                        push(0, i);
+                        break;
+                    case ParsedFormula.MARK:
+                        push(0, ARG_MARK);
+                        break;
+                    case ParsedFormula.ADD:
+                    case ParsedFormula.SUB:
+                    case ParsedFormula.MUL:
+                    case ParsedFormula.DIV:
+                        applyOperator(f, i, sheet);
+                        break;
+                    case ParsedFormula.SUM:
+                    case ParsedFormula.MIN:
+                    case ParsedFormula.MAX:
+                    case ParsedFormula.MEAN:
+                        applyFunction(f, i, sheet);
+                        break;
+                    case ParsedFormula.BAD_FUNCTION:
+                        throw new IllegalStateException("Unknown function: " + f.postfix.get(i).text.toUpperCase());
+                    case ParsedFormula.BAD_NUMBER:
+                        throw new IllegalStateException("Invalid numeric literal: " + f.postfix.get(i).text);
+                    case ParsedFormula.BAD_OPERATOR:
+                        if (top < 2)
+                            throw new IllegalStateException("Operator " + f.postfix.get(i).text + " missing operands");
+                        throw new IllegalStateException("Unknown operator");
+                    default:
+                        throw new IllegalStateException(
+                                "Unsupported token in postfix evaluation: " + f.postfix.get(i));
+                }
             }
 
-
-            allValues.addAll(0, top);
-        }
-
-        if (allValues.isEmpty()) {
-            throw new IllegalStateException(
-                    "Function " + token.text + " has no arguments"
-            );
-        }
-
-        double result;
-        String name = token.text.toUpperCase();
-
-        switch (name) {
-            case "SUM":
-                result = allValues.stream().mapToDouble(Double::doubleValue).sum();
-                break;
-            case "MIN":
-                result = allValues.stream().mapToDouble(Double::doubleValue).min().orElseThrow();
-                break;
-            case "MAX":
-                result = allValues.stream().mapToDouble(Double::doubleValue).max().orElseThrow();
-                break;
-            case "MEAN":
-                result = allValues.stream().mapToDouble(Double::doubleValue).average().orElseThrow();
-                break;
-            default:
-                throw new IllegalStateException("Unknown function: " + name);
+            if (top != 1) {
+                throw new IllegalStateException("Invalid formula: leftover values");
+            }
+            if (kinds[0] != SCALAR && !isSingleCell(f, kinds[0])) {
+                throw new IllegalStateException("Formula did not reduce to a single value");
+            }
+            return scalarAt(0, f, sheet);
+        } finally {
+            busy = false;
         }
-
-        stack.push(List.of(result));
     }
 
+    private void push(double v, int kind) {
+        values[top] = v;
+        kinds[top++] = kind;
+    }
 
-
-
-
-    private void applyOperator(Token token, Deque<List<Double>> stack) {
-
-        if (stack.size() < 2) {
-            throw new IllegalStateException("Operator " + token.text + " missing operands");
+    private void applyOperator(ParsedFormula f, int i, Spreadsheet sheet) {
+        if (top < 2) {
+            throw new IllegalStateException("Operator " + f.postfix.get(i).text + " missing operands");
         }
-
-        List<Double> b = stack.pop();
-        List<Double> a = stack.pop();
-
-        if (a.size() != 1 || b.size() != 1) {
+        int bi = top - 1;
+        int ai = top - 2;
+        if (!isScalar(f, kinds[ai]) || !isScalar(f, kinds[bi])) {
             throw new IllegalStateException("Operators require scalar values");
         }
-
-        double x = a.get(0);
-        double y = b.get(0);
+        double x = scalarAt(ai, f, sheet);
+        double y = scalarAt(bi, f, sheet);
         double result;
-
-        switch (token.text) {
-            case "+": result = x + y; break;
-            case "-": result = x - y; break;
-            case "*": result = x * y; break;
-            case "/":
+        switch (f.code[i]) {
+            case ParsedFormula.ADD: result = x + y; break;
+            case ParsedFormula.SUB: result = x - y; break;
+            case ParsedFormula.MUL: result = x * y; break;
+            default:
                 if (y == 0) throw new IllegalStateException("Division by zero");
                 result = x / y;
-                break;
-            default:
-                throw new IllegalStateException("Unknown operator");
-        }
-
-        stack.push(List.of(result));
-    }
-
-
-
-
-    private List<Double> resolveCellReference(Token token) {
-        if (!token.text.contains(":")) {
-            int[] rc = Spreadsheet.coordToIndices(token.text);
-            Cell cell = sheet.getCell(rc[0], rc[1]);
-            return List.of(cell.getContent().getNumericValue(sheet));
         }
-        return expandRange(token.text);
+        top -= 2;
+        push(result, SCALAR);
     }
 
-    private List<Double> expandRange(String range) {
-        String[] parts = range.split(":");
-        int[] start = Spreadsheet.coordToIndices(parts[0]);
-        int[] end = Spreadsheet.coordToIndices(parts[1]);
-
-        int startRow = start[0];
-        int endRow   = end[0];
-        int startCol = start[1];
-        int endCol   = end[1];
-
-        int rFrom = Math.min(startRow, endRow);
-        int rTo   = Math.max(startRow, endRow);
-        int cFrom = Math.min(startCol, endCol);
-        int cTo   = Math.max(startCol, endCol);
-
-
-        List<Double> values = new ArrayList<>();
-
-        for (int r = rFrom; r <= rTo; r++) {
-            for (int c = cFrom; c <= cTo; c++) {
-                values.add(
-                        sheet.getCell(r, c)
-                                .getContent()
-                                .getNumericValue(sheet)
-                );
+    // Folds every argument down to the nearest marker, in argument order, without building a list.
+    private void applyFunction(ParsedFormula f, int i, Spreadsheet sheet) {
+        int mark = top - 1;
+        while (mark >= 0 && kinds[mark] != ARG_MARK) mark--;
+
+        Aggregate agg = aggregate;
+        agg.reset();
+        for (int s = mark + 1; s < top; s++) {
+            int kind = kinds[s];
+            if (kind == SCALAR) {
+                agg.add(values[s]);
+                continue;
             }
+            int[] rc = f.cells;
+            int k = kind * 4;
+            sheet.aggregateRange(rc[k] + rowOffset, rc[k + 1] + colOffset,
+                    rc[k + 2] + rowOffset, rc[k + 3] + colOffset, agg);
         }
-
-        return values;
+        double result = agg.result(f.code[i]);
+        top = Math.max(mark, 0);
+        push(result, SCALAR);
     }
 
-
-
-    private double evaluateRange(String range) {
-        String[] parts = range.split(":");
-        if (parts.length != 2) {
-            throw new IllegalStateException("Invalid range: " + range);
-        }
-
-        int[] start = Spreadsheet.coordToIndices(parts[0]);
-        int[] end = Spreadsheet.coordToIndices(parts[1]);
-
-        if (start == null || end == null) {
-            throw new IllegalStateException("Invalid range: " + range);
-        }
-
-        int r1 = Math.min(start[0], end[0]);
-        int r2 = Math.max(start[0], end[0]);
-        int c1 = Math.min(start[1], end[1]);
-        int c2 = Math.max(start[1], end[1]);
-
-        double sum = 0.0;
-        int count = 0;
-
-        for (int r = r1; r <= r2; r++) {
-            for (int c = c1; c <= c2; c++) {
-                sum += sheet.getCell(r, c).getContent().getNumericValue(sheet);
-                count++;
-            }
-        }
-
-        return sum;
+    private boolean isScalar(ParsedFormula f, int kind) {
+        return kind == SCALAR || (kind >= 0 && isSingleCell(f, kind));
     }
 
-
-
-    public double evaluate(List<Token> postfixTokens) {
-        Deque<List<Double>> stack = new ArrayDeque<>();
-
-        for (Token token : postfixTokens) {
-            switch (token.type) {
-                case NUMBER:
-                    stack.push(List.of(Double.parseDouble(token.text)));
-                    break;
-
-                case CELL_REF:
-                    stack.push(resolveCellReference(token));
-                    break;
-
-                case OPERATOR:
-                    applyOperator(token, stack);
-                    break;
-
-                case FUNCTION:
-                    applyFunction(token, stack);
-                    break;
-
-                case ARG_MARKER:
-                    stack.push(ARG_MARK);
-                    break;
-
-
-                default:
-                    throw new IllegalStateException(
-                            "Unsupported token in postfix evaluation: " + token
-                    );
-            }
-
-        }
-
-        if (stack.size() != 1) {
-            throw new IllegalStateException("Invalid formula: leftover values");
-        }
-
-        List<Double> result = stack.pop();
-
-        if (result.size() != 1) {
-            throw new IllegalStateException("Formula did not reduce to a single value");
-        }
-
-        return result.get(0);
+    private static boolean isSingleCell(ParsedFormula f, int kind) {
+        if (kind < 0) return false;
+        int k = kind * 4;
+        return f.cells[k] == f.cells[k + 2] && f.cells[k + 1] == f.cells[k + 3];
     }
 
+    private double scalarAt(int slot, ParsedFormula f, Spreadsheet sheet) {
+        int kind = kinds[slot];
+        if (kind == SCALAR) return values[slot];
+        return sheet.getCell(f.cells[kind * 4] + rowOffset, f.cells[kind * 4 + 1] + colOffset)
+                .getContent().getNumericValue(sheet);
+    }
 }
@@ -0,0 +1,149 @@
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.LongConsumer;
+
+/**
+ * Spatial index of rectangular range references. Each column owns an interval
+ * tree over rows, so "which ranges contain this cell" costs O(log n + k) instead
+ * of one stored edge per covered cell.
+ */
+final class RangeIndex {
+
+    private IntervalTree[] columns = new IntervalTree[16];
+    private int size;
+
+    int size() { return size; }
+
+    void add(int r1, int c1, int r2, int c2, long owner) {
+        if (c2 >= columns.length) columns = Arrays.copyOf(columns, Math.max(c2 + 1, columns.length * 2));
+        for (int c = c1; c <= c2; c++) {
+            if (columns[c] == null) columns[c] = new IntervalTree();
+            columns[c].insert(r1, r2, owner);
+        }
+        size++;
+    }
+
+    void remove(int r1, int c1, int r2, int c2, long owner) {
+        for (int c = c1; c <= c2 && c < columns.length; c++) {
+            if (columns[c] != null) columns[c].delete(r1, r2, owner);
+        }
+        size--;
+    }
+
+    /** Reports the owner of every range covering (row, col); an owner may be reported more than once. */
+    void forEachContaining(int row, int col, LongConsumer action) {
+        if (col < 0 || col >= columns.length || columns[col] == null) return;
+        columns[col].stab(row, action);
+    }
+
+    /** Randomized treap keyed by (lo, owner, hi) and augmented with the subtree's maximum hi. */
+    private static final class IntervalTree {
+        private final Random random = new Random(0x5EED);
+        private Node root;
+
+        private static final class Node {
+            final int lo;
+            final int hi;
+            final long owner;
+            final int priority;
+            int maxHi;
+            Node left;
+            Node right;
+
+            Node(int lo, int hi, long owner, int priority) {
+                this.lo = lo;
+                this.hi = hi;
+                this.owner = owner;
+                this.priority = priority;
+                this.maxHi = hi;
+            }
+        }
+
+        void insert(int lo, int hi, long owner) {
+            root = insert(root, new Node(lo, hi, owner, random.nextInt()));
+        }
+
+        void delete(int lo, int hi, long owner) {
+            root = delete(root, lo, hi, owner);
+        }
+
+        void stab(int point, LongConsumer action) {
+            stab(root, point, action);
+        }
+
+        private static Node insert(Node t, Node n) {
+            if (t == null) return n;
+            if (compare(n.lo, n.owner, n.hi, t) < 0) {
+                t.left = insert(t.left, n);
+                if (t.left.priority > t.priority) t = rotateRight(t);
+            } else {
+                t.right = insert(t.right, n);
+                if (t.right.priority > t.priority) t = rotateLeft(t);
+            }
+            update(t);
+            return t;
+        }
+
+        private static Node delete(Node t, int lo, int hi, long owner) {
+            if (t == null) return null;
+            int cmp = compare(lo, owner, hi, t);
+            if (cmp < 0) {
+                t.left = delete(t.left, lo, hi, owner);
+            } else if (cmp > 0) {
+                t.right = delete(t.right, lo, hi, owner);
+            } else {
+                if (t.left == null) return t.right;
+                if (t.right == null) return t.left;
+                if (t.left.priority > t.right.priority) {
+                    t = rotateRight(t);
+                    t.right = delete(t.right, lo, hi, owner);
+                } else {
+                    t = rotateLeft(t);
+                    t.left = delete(t.left, lo, hi, owner);
+                }
+            }
+            update(t);
+            return t;
+        }
+
+        private static void stab(Node t, int point, LongConsumer action) {
+            while (t != null && t.maxHi >= point) {
+                if (t.left != null && t.left.maxHi >= point) stab(t.left, point, action);
+                if (t.lo > point) return;
+                if (t.hi >= point) action.accept(t.owner);
+                t = t.right;
+            }
+        }
+
+        private static int compare(int lo, long owner, int hi, Node t) {
+            if (lo != t.lo) return Integer.compare(lo, t.lo);
+            if (owner != t.owner) return Long.compare(owner, t.owner);
+            return Integer.compare(hi, t.hi);
+        }
+
+        private static Node rotateRight(Node t) {
+            Node l = t.left;
+            t.left = l.right;
+            l.right = t;
+            update(t);
+            update(l);
+            return l;
+        }
+
+        private static Node rotateLeft(Node t) {
+            Node r = t.right;
+            t.right = r.left;
+            r.left = t;
+            update(t);
+            update(r);
+            return r;
+        }
+
+        private static void update(Node t) {
+            int m = t.hi;
+            if (t.left != null && t.left.maxHi > m) m = t.left.maxHi;
+            if (t.right != null && t.right.maxHi > m) m = t.right.maxHi;
+            t.maxHi = m;
+        }
+    }
+}
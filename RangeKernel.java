@@ -0,0 +1,140 @@
+/**
+ * Bulk SUM/MIN/MAX/MEAN folding for large ranges the aggregate index does not
+ * answer: short, wide rectangles and lazily loaded sheets. Runs of numeric and
+ * empty cells are copied straight out of storage into a primitive buffer with
+ * {@link SpreadsheetStorage#readNumbers} and reduced in independent lanes,
+ * each with its own compensated sum, minimum and maximum; each full buffer
+ * reaches the caller's {@link Aggregate} as one run. The lanes are those of
+ * {@link VectorKernel} when the JVM runs with
+ * {@code --add-modules jdk.incubator.vector}, as the build starts it, and
+ * four scalar ones otherwise. Formula and text cells
+ * end a storage run and have their values added to the buffer one by one.
+ *
+ * <p>Storage is read without the sheet's locking: ranges are only folded while
+ * a formula is computed, which on a concurrent sheet happens under its read or
+ * write lock.
+ */
+final class RangeKernel {
+
+    static final boolean ENABLED =
+            Boolean.parseBoolean(System.getProperty("spreadsheet.rangeKernel", "true"));
+
+    // False also forces the four scalar lanes when the Vector API is present
+    static final boolean VECTOR =
+            Boolean.parseBoolean(System.getProperty("spreadsheet.vectorKernel", "true"))
+                    && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    // Ranges with fewer cells than this are cheaper to fold directly
+    static final int MIN_CELLS = 256;
+
+    private static final int CHUNK = 1024;
+    private static final ThreadLocal<double[]> BUFFER = ThreadLocal.withInitial(() -> new double[CHUNK]);
+
+    private RangeKernel() {}
+
+    /** Folds every value of the 1-based rectangle of {@code storage} into {@code into}. */
+    static void aggregate(Spreadsheet sheet, SpreadsheetStorage storage, int r1, int c1, int r2, int c2,
+                          Aggregate into) {
+        double[] buf = BUFFER.get();
+        int n = 0;
+        for (int r = r1; r <= r2; r++) {
+            for (int c = c1; c <= c2; ) {
+                int got = storage.readNumbers(r - 1, c - 1, Math.min(c2 - c + 1, CHUNK - n), buf, n);
+                n += got;
+                c += got;
+                if (n < CHUNK && c <= c2) {
+                    // Stopped at a formula or text cell
+                    CellContent cc = storage.getCell(r - 1, c - 1).getContent();
+                    if (cc instanceof FormulaContent fc && !fc.hasCachedValue()) {
+                        // Evaluating it may re-enter here on this thread, so the buffer is emptied first
+                        fold(buf, n, into);
+                        n = 0;
+                    }
+                    buf[n++] = cc.getNumericValue(sheet);
+                    c++;
+                }
+                if (n == CHUNK) {
+                    fold(buf, n, into);
+                    n = 0;
+                }
+            }
+        }
+        fold(buf, n, into);
+    }
+
+    /** Folds {@code v[0..n)} into {@code into} as one run. */
+    static void fold(double[] v, int n, Aggregate into) {
+        // VectorKernel is only loaded, and its module only needed, on this branch
+        if (VECTOR) VectorKernel.fold(v, n, into);
+        else foldLanes(v, n, into);
+    }
+
+    /** {@link #fold} in four scalar lanes; the fallback without the Vector API. */
+    static void foldLanes(double[] v, int n, Aggregate into) {
+        if (n == 0) return;
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        double e0 = 0, e1 = 0, e2 = 0, e3 = 0;
+        double lo0 = Double.POSITIVE_INFINITY, lo1 = lo0, lo2 = lo0, lo3 = lo0;
+        double hi0 = Double.NEGATIVE_INFINITY, hi1 = hi0, hi2 = hi0, hi3 = hi0;
+        int i = 0;
+        for (; i + 3 < n; i += 4) {
+            double a = v[i], b = v[i + 1], c = v[i + 2], d = v[i + 3];
+            double y0 = a - e0, t0 = s0 + y0;
+            double y1 = b - e1, t1 = s1 + y1;
+            double y2 = c - e2, t2 = s2 + y2;
+            double y3 = d - e3, t3 = s3 + y3;
+            e0 = (t0 - s0) - y0;
+            e1 = (t1 - s1) - y1;
+            e2 = (t2 - s2) - y2;
+            e3 = (t3 - s3) - y3;
+            s0 = t0;
+            s1 = t1;
+            s2 = t2;
+            s3 = t3;
+            // Plain compares keep this branch-free; NaN is dealt with below
+            lo0 = a < lo0 ? a : lo0;
+            lo1 = b < lo1 ? b : lo1;
+            lo2 = c < lo2 ? c : lo2;
+            lo3 = d < lo3 ? d : lo3;
+            hi0 = a > hi0 ? a : hi0;
+            hi1 = b > hi1 ? b : hi1;
+            hi2 = c > hi2 ? c : hi2;
+            hi3 = d > hi3 ? d : hi3;
+        }
+        for (; i < n; i++) {
+            double a = v[i];
+            double y0 = a - e0, t0 = s0 + y0;
+            e0 = (t0 - s0) - y0;
+            s0 = t0;
+            lo0 = a < lo0 ? a : lo0;
+            hi0 = a > hi0 ? a : hi0;
+        }
+        double sum = ((s0 - e0) + (s1 - e1)) + ((s2 - e2) + (s3 - e3));
+        double lo = lo1 < lo0 ? lo1 : lo0;
+        lo = lo2 < lo ? lo2 : lo;
+        lo = lo3 < lo ? lo3 : lo;
+        double hi = hi1 > hi0 ? hi1 : hi0;
+        hi = hi2 > hi ? hi2 : hi;
+        hi = hi3 > hi ? hi3 : hi;
+        if (sum != sum) rescan(v, n, into);
+        else into.addRun(sum, lo, hi, n);
+    }
+
+    /**
+     * A NaN, an infinity or an overflow poisons a compensated sum; rare, so the
+     * run is folded again with the extremes taken the way Aggregate takes them,
+     * and the plain sum: infinite unless a NaN or opposite infinities were added.
+     */
+    static void rescan(double[] v, int n, Aggregate into) {
+        double lo = Double.POSITIVE_INFINITY;
+        double hi = Double.NEGATIVE_INFINITY;
+        double plain = 0;
+        for (int k = 0; k < n; k++) {
+            double a = v[k];
+            plain += a;
+            if (a < lo || a != a) lo = a;
+            if (a > hi || a != a) hi = a;
+        }
+        into.addRun(plain, lo, hi, n);
+    }
+}
@@ -0,0 +1,93 @@
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Evaluates a formula together with every stale formula it reads, without
+ * recursion. Inputs are discovered with an explicit work stack and evaluated in
+ * post-order, so each formula is computed once, only after all of its inputs
+ * hold a cached value, and chain depth is limited by heap rather than the Java stack.
+ */
+final class RecalcEngine {
+
+    private final Spreadsheet sheet;
+
+    RecalcEngine(Spreadsheet sheet) {
+        this.sheet = sheet;
+    }
+
+    double evaluate(FormulaContent root) {
+        Deque<Frame> stack = new ArrayDeque<>();
+        Set<FormulaContent> onStack = Collections.newSetFromMap(new IdentityHashMap<>());
+        stack.push(new Frame(root));
+        onStack.add(root);
+
+        while (!stack.isEmpty()) {
+            Frame frame = stack.peek();
+            FormulaContent input = frame.nextStaleInput();
+            if (input != null) {
+                if (!onStack.add(input))
+                    throw new IllegalStateException("Circular dependency detected");
+                stack.push(new Frame(input));
+                continue;
+            }
+            stack.pop();
+            onStack.remove(frame.formula);
+            frame.formula.computeValue(sheet);
+        }
+        return root.getNumericValue(sheet);
+    }
+
+    /**
+     * Cursor over the cells referenced by one formula, rectangle by rectangle
+     * and column by column. Tall columns jump straight to their formula and
+     * text cells through the aggregate index instead of visiting every row.
+     */
+    private final class Frame {
+        final FormulaContent formula;
+        private final int[] refs;
+        private int k;
+        private int r;
+        private int c;
+
+        Frame(FormulaContent formula) {
+            this.formula = formula;
+            this.refs = formula.references();
+            if (refs.length > 0) {
+                r = refs[0];
+                c = refs[1];
+            }
+        }
+
+        FormulaContent nextStaleInput() {
+            while (k < refs.length) {
+                int r2 = refs[k + 2];
+                if (r2 - refs[k] + 1 >= AggregateIndex.THRESHOLD && r <= r2) {
+                    r = sheet.nextNonConstantRow(c, r, r2);
+                    if (r < 0) r = r2 + 1;
+                }
+                if (r > r2) {
+                    nextColumn();
+                    continue;
+                }
+                CellContent content = sheet.getCell(r++, c).getContent();
+                if (content instanceof FormulaContent fc && !fc.hasCachedValue()) return fc;
+            }
+            return null;
+        }
+
+        private void nextColumn() {
+            if (++c <= refs[k + 3]) {
+                r = refs[k];
+                return;
+            }
+            k += 4;
+            if (k < refs.length) {
+                r = refs[k];
+                c = refs[k + 1];
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MutableCallSite;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Counters and histograms that show where recalculation time goes: how far an
+ * edit's invalidation fans out, how much the cycle check walks, how many
+ * formulas are evaluated and how often a cached value is found, how many range
+ * cells are read one by one, and the size and duration of loads and saves.
+ * Published as the platform MBean {@value #NAME}.
+ *
+ * <p>Off by default. Every probe first tests {@link #enabled()}, a call site
+ * the JIT compiles to a constant, so a disabled probe leaves nothing behind in
+ * compiled code. Switching it retargets the call site and deoptimizes the code
+ * that folded the old value, which every thread then sees. Switch it on with
+ * {@code -Dspreadsheet.metrics=true} or through the MBean's Enabled attribute.
+ */
+final class RecalcMetrics implements RecalcMetricsMBean {
+
+    static final String NAME = "spreadsheet:type=RecalcMetrics";
+
+    private static final MutableCallSite SWITCH = new MutableCallSite(
+            MethodHandles.constant(boolean.class, Boolean.getBoolean("spreadsheet.metrics")));
+    private static final MethodHandle ENABLED = SWITCH.dynamicInvoker();
+
+    private static final RecalcMetrics INSTANCE = new RecalcMetrics();
+
+    private final LongAdder edits = new LongAdder();
+    private final LongAdder invalidated = new LongAdder();
+    private final Histogram invalidatedPerEdit = new Histogram();
+    private final LongAdder evaluated = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder rangeCells = new LongAdder();
+    private final LongAdder cycleChecks = new LongAdder();
+    private final LongAdder cycleNodes = new LongAdder();
+    private final Histogram cycleNodesPerCheck = new Histogram();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder bytesLoaded = new LongAdder();
+    private final Histogram loadNanos = new Histogram();
+    private final LongAdder saves = new LongAdder();
+    private final LongAdder bytesSaved = new LongAdder();
+    private final Histogram saveNanos = new Histogram();
+
+    private RecalcMetrics() {}
+
+    /** Registers the MBean with the platform server; later calls do nothing. */
+    static synchronized void register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName(NAME);
+            if (!server.isRegistered(name))
+                server.registerMBean(new StandardMBean(INSTANCE, RecalcMetricsMBean.class), name);
+        } catch (JMException ex) {
+            throw new IllegalStateException("Cannot register " + NAME, ex);
+        }
+    }
+
+    static boolean enabled() {
+        try {
+            return (boolean) ENABLED.invokeExact();
+        } catch (Throwable ex) {
+            throw new AssertionError(ex);
+        }
+    }
+
+    static synchronized void enable(boolean on) {
+        if (enabled() == on) return;
+        SWITCH.setTarget(MethodHandles.constant(boolean.class, on));
+        MutableCallSite.syncAll(new MutableCallSite[]{SWITCH});
+    }
+
+    // ---------- Probes ----------
+
+    /** One edit or transaction cleared the caches of {@code cells} cells. */
+    static void invalidated(int cells) {
+        if (!enabled()) return;
+        INSTANCE.edits.increment();
+        INSTANCE.invalidated.add(cells);
+        INSTANCE.invalidatedPerEdit.record(cells);
+    }
+
+    static void evaluated() {
+        if (enabled()) INSTANCE.evaluated.increment();
+    }
+
+    static void cacheHit() {
+        if (enabled()) INSTANCE.hits.increment();
+    }
+
+    static void cacheMiss() {
+        if (enabled()) INSTANCE.misses.increment();
+    }
+
+    static void rangeScanned(long cells) {
+        if (enabled() && cells > 0) INSTANCE.rangeCells.add(cells);
+    }
+
+    /** One cycle check, or one reordering search for a new edge, visited {@code nodes} cells. */
+    static void cycleCheck(int nodes) {
+        if (!enabled()) return;
+        INSTANCE.cycleChecks.increment();
+        INSTANCE.cycleNodes.add(nodes);
+        INSTANCE.cycleNodesPerCheck.record(nodes);
+    }
+
+    static void loaded(long bytes, long nanos) {
+        if (!enabled()) return;
+        INSTANCE.loads.increment();
+        INSTANCE.bytesLoaded.add(bytes);
+        INSTANCE.loadNanos.record(nanos);
+    }
+
+    static void saved(long bytes, long nanos) {
+        if (!enabled()) return;
+        INSTANCE.saves.increment();
+        INSTANCE.bytesSaved.add(bytes);
+        INSTANCE.saveNanos.record(nanos);
+    }
+
+    /** Start time for a timed probe, or 0 when disabled so nothing is spent reading the clock. */
+    static long start() {
+        return enabled() ? System.nanoTime() : 0;
+    }
+
+    // ---------- MBean ----------
+
+    @Override public boolean isEnabled() { return enabled(); }
+    @Override public void setEnabled(boolean on) { enable(on); }
+
+    @Override public long getEdits() { return edits.sum(); }
+    @Override public long getCellsInvalidated() { return invalidated.sum(); }
+    @Override public long getCellsInvalidatedPerEditP50() { return invalidatedPerEdit.percentile(0.50); }
+    @Override public long getCellsInvalidatedPerEditP99() { return invalidatedPerEdit.percentile(0.99); }
+    @Override public long getCellsInvalidatedPerEditMax() { return invalidatedPerEdit.percentile(1.0); }
+    @Override public long getFormulasEvaluated() { return evaluated.sum(); }
+    @Override public long getCacheHits() { return hits.sum(); }
+    @Override public long getCacheMisses() { return misses.sum(); }
+    @Override public long getRangeCellsScanned() { return rangeCells.sum(); }
+    @Override public long getCycleChecks() { return cycleChecks.sum(); }
+    @Override public long getCycleCheckNodesVisited() { return cycleNodes.sum(); }
+    @Override public long getCycleCheckNodesP99() { return cycleNodesPerCheck.percentile(0.99); }
+    @Override public long getCycleCheckNodesMax() { return cycleNodesPerCheck.percentile(1.0); }
+    @Override public long getLoads() { return loads.sum(); }
+    @Override public long getBytesLoaded() { return bytesLoaded.sum(); }
+    @Override public long getLoadMillisP50() { return loadNanos.percentile(0.50) / 1_000_000; }
+    @Override public long getLoadMillisMax() { return loadNanos.percentile(1.0) / 1_000_000; }
+    @Override public long getSaves() { return saves.sum(); }
+    @Override public long getBytesSaved() { return bytesSaved.sum(); }
+    @Override public long getSaveMillisP50() { return saveNanos.percentile(0.50) / 1_000_000; }
+    @Override public long getSaveMillisMax() { return saveNanos.percentile(1.0) / 1_000_000; }
+
+    @Override
+    public void reset() {
+        for (LongAdder a : new LongAdder[]{edits, invalidated, evaluated, hits, misses, rangeCells,
+                cycleChecks, cycleNodes, loads, bytesLoaded, saves, bytesSaved}) {
+            a.reset();
+        }
+        invalidatedPerEdit.reset();
+        cycleNodesPerCheck.reset();
+        loadNanos.reset();
+        saveNanos.reset();
+    }
+}
@@ -0,0 +1,56 @@
+/**
+ * Management interface of {@link RecalcMetrics}. Counts are totals since start
+ * or the last {@link #reset()}; percentiles are bucket upper bounds.
+ */
+public interface RecalcMetricsMBean {
+
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    /** Edits and committed transactions. */
+    long getEdits();
+
+    long getCellsInvalidated();
+
+    long getCellsInvalidatedPerEditP50();
+
+    long getCellsInvalidatedPerEditP99();
+
+    long getCellsInvalidatedPerEditMax();
+
+    long getFormulasEvaluated();
+
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    /** Range cells read one by one while folding SUM/MIN/MAX/MEAN arguments. */
+    long getRangeCellsScanned();
+
+    long getCycleChecks();
+
+    long getCycleCheckNodesVisited();
+
+    long getCycleCheckNodesP99();
+
+    long getCycleCheckNodesMax();
+
+    long getLoads();
+
+    long getBytesLoaded();
+
+    long getLoadMillisP50();
+
+    long getLoadMillisMax();
+
+    long getSaves();
+
+    long getBytesSaved();
+
+    long getSaveMillisP50();
+
+    long getSaveMillisMax();
+
+    void reset();
+}
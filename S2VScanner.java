@@ -0,0 +1,92 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Single-pass reader for S2V files. Bytes are pulled through a reusable buffer
+ * from a {@link FileChannel} and split on ';' and line breaks (\n, \r\n or \r)
+ * as they arrive, so the file is never held in memory as lines or split arrays.
+ * Both delimiters are ASCII and therefore safe to find inside UTF-8 text.
+ */
+final class S2VScanner {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /** Receives fields in file order; rows and columns are 0-based. */
+    interface Sink {
+        void field(int row, int col, byte[] bytes, int len);
+
+        default void endRow(int row, int fields) {}
+    }
+
+    private S2VScanner() {}
+
+    /** Feeds every field of {@code path} to {@code sink} and returns the number of rows. */
+    static int scan(Path path, Sink sink) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        byte[] field = new byte[256];
+        int len = 0;
+        int row = 0;
+        int col = 0;
+        boolean inRow = false;
+        boolean afterCr = false;
+
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (ch.read(buf) >= 0) {
+                buf.flip();
+                while (buf.hasRemaining()) {
+                    byte b = buf.get();
+                    if (afterCr) {
+                        afterCr = false;
+                        if (b == '\n') continue;
+                    }
+                    if (b == ';') {
+                        sink.field(row, col++, field, len);
+                        len = 0;
+                        inRow = true;
+                    } else if (b == '\n' || b == '\r') {
+                        sink.field(row, col, field, len);
+                        sink.endRow(row, col + 1);
+                        row++;
+                        col = 0;
+                        len = 0;
+                        inRow = false;
+                        afterCr = b == '\r';
+                    } else {
+                        if (len == field.length) field = Arrays.copyOf(field, len * 2);
+                        field[len++] = b;
+                        inRow = true;
+                    }
+                }
+                buf.clear();
+            }
+        }
+        if (inRow) {
+            sink.field(row, col, field, len);
+            sink.endRow(row, col + 1);
+            row++;
+        }
+        return row;
+    }
+
+    /** Rows and widest row of {@code path}, as {rows, cols}; nothing is decoded. */
+    static int[] extent(Path path) throws IOException {
+        int[] maxCols = {0};
+        int rows = scan(path, new Sink() {
+            @Override public void field(int row, int col, byte[] bytes, int len) {}
+
+            @Override public void endRow(int row, int fields) {
+                if (fields > maxCols[0]) maxCols[0] = fields;
+            }
+        });
+        return new int[]{rows, maxCols[0]};
+    }
+
+    static String decode(byte[] bytes, int len) {
+        return new String(bytes, 0, len, StandardCharsets.UTF_8);
+    }
+}
@@ -1,62 +1,258 @@
-import java.io.BufferedWriter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.List;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.concurrent.ThreadLocalRandom;
 
 
 public final class S2VSerializer {
 
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /**
+     * Writes the sheet to a temporary file next to {@code path}, syncs it and
+     * renames it over the target, so a failed save or a crash never leaves a
+     * half-written file behind.
+     */
     public void save(Spreadsheet sheet, Path path) throws IOException {
-        try (BufferedWriter w = Files.newBufferedWriter(path)) {
-            int rows = sheet.getInternalRowCount();
-            int cols = sheet.getInternalColCount();
-            for (int r = 0; r < rows; r++) {
-                int last = -1;
-                for (int c = cols - 1; c >= 0; c--) {
-                    if (!sheet.getCellInternal(r, c).getContent().isEmpty()) { last = c; break; }
-                }
-                if (last == -1) { w.write(""); w.newLine(); continue; }
-                StringBuilder sb = new StringBuilder();
-                for (int c = 0; c <= last; c++) {
-                    if (c > 0) sb.append(';');
-                    CellContent cc = sheet.getCellInternal(r, c).getContent();
-                    String raw = cc.getRaw();
-                    if (raw == null) raw = "";
-                    if (cc instanceof FormulaContent) raw = convertSemicolonToCommaInParens(raw);
-                    sb.append(raw);
+        SheetEvents.Save event = new SheetEvents.Save();
+        event.begin();
+        long start = RecalcMetrics.start();
+        Path tmp = tempFileFor(path);
+        try {
+            RowWriter out;
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                out = new RowWriter(ch);
+                sheet.forEachCellInternal(out);
+                out.finish(sheet.getInternalRowCount());
+                // Without this a crash after the rename can leave the new name on unwritten blocks
+                ch.force(true);
+            }
+            replace(tmp, path);
+            if (start != 0) RecalcMetrics.saved(out.written, System.nanoTime() - start);
+            if (event.shouldCommit()) SheetEvents.commit(event, path, "s2v", out.written);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Creates an empty, uniquely named file next to {@code path} to write its
+     * replacement into, so concurrent saves of one path never share a temp
+     * file. Unlike Files.createTempFile it is created with the default
+     * permissions of a new file, or given the target's own if it exists.
+     */
+    static Path tempFileFor(Path path) throws IOException {
+        while (true) {
+            Path tmp = path.resolveSibling(path.getFileName() + "."
+                    + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+            try {
+                Files.newByteChannel(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE).close();
+            } catch (FileAlreadyExistsException ex) {
+                continue;
+            }
+            try {
+                PosixFileAttributeView view = Files.getFileAttributeView(tmp, PosixFileAttributeView.class);
+                if (view != null && Files.exists(path)) view.setPermissions(Files.getPosixFilePermissions(path));
+            } catch (IOException | RuntimeException ex) {
+                Files.deleteIfExists(tmp);
+                throw ex;
+            }
+            return tmp;
+        }
+    }
+
+    // Renames the finished temporary file over the target, atomically where the filesystem allows it
+    static void replace(Path tmp, Path target) throws IOException {
+        try {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Writes cells as they are visited in row-major order. Empty cells are never
+     * written; the separators in front of the next non-empty cell and the line
+     * breaks for skipped rows are emitted on demand, so unallocated regions cost nothing.
+     * Output goes through one reusable buffer straight to the channel.
+     */
+    private static final class RowWriter implements SpreadsheetStorage.CellVisitor {
+        private static final byte[] NEWLINE = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+
+        private final FileChannel ch;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private int row = 0;
+        private int separators = 0;
+        private IOException failure;
+        long written;
+
+        RowWriter(FileChannel ch) {
+            this.ch = ch;
+        }
+
+        @Override
+        public void visit(int r, int c, Cell cell) {
+            if (failure != null) return;
+            CellContent cc = cell.getContent();
+            if (cc.isEmpty()) return;
+            try {
+                advanceTo(r);
+                for (; separators < c; separators++) put((byte) ';');
+                put(cc instanceof FormulaContent ? ((FormulaContent) cc).fileForm() : cc.getRaw());
+            } catch (IOException ex) {
+                failure = ex;
+            }
+        }
+
+        void finish(int rows) throws IOException {
+            if (failure != null) throw failure;
+            advanceTo(rows);
+            flush();
+        }
+
+        private void advanceTo(int r) throws IOException {
+            for (; row < r; row++) {
+                for (byte b : NEWLINE) put(b);
+                separators = 0;
+            }
+        }
+
+        private void put(String s) throws IOException {
+            int n = s.length();
+            for (int i = 0; i < n; i++) {
+                char ch = s.charAt(i);
+                if (ch >= 0x80) {
+                    put(s.substring(i).getBytes(StandardCharsets.UTF_8));
+                    return;
                 }
-                w.write(sb.toString());
-                w.newLine();
+                put((byte) ch);
             }
         }
+
+        private void put(byte[] bytes) throws IOException {
+            for (byte b : bytes) put(b);
+        }
+
+        private void put(byte b) throws IOException {
+            if (!buf.hasRemaining()) flush();
+            buf.put(b);
+        }
+
+        private void flush() throws IOException {
+            written += buf.position();
+            buf.flip();
+            while (buf.hasRemaining()) ch.write(buf);
+            buf.clear();
+        }
     }
 
+    /**
+     * Opens {@code path} as a new sheet sized to the file's own extent: one
+     * cheap pass counts rows and the widest row, a second pass streams the cells.
+     */
+    public Spreadsheet load(Path path) throws IOException {
+        SheetEvents.Load event = new SheetEvents.Load();
+        event.begin();
+        long start = RecalcMetrics.start();
+        int[] extent = S2VScanner.extent(path);
+        Spreadsheet sheet = Spreadsheet.tiled(Math.max(1, extent[0]), Math.max(1, extent[1]));
+        CellLoader loader = new CellLoader(sheet, false);
+        S2VScanner.scan(path, loader);
+        loader.bulk.finish();
+        if (start != 0) RecalcMetrics.loaded(Files.size(path), System.nanoTime() - start);
+        if (event.shouldCommit()) SheetEvents.commit(event, path, "s2v", Files.size(path), sheet);
+        return sheet;
+    }
+
+    /**
+     * Opens {@code path} without reading its cells: the file is memory-mapped and
+     * each row is parsed the first time one of its cells is touched. Formulas are
+     * evaluated on demand, pulling in only the rows their references reach.
+     */
+    public Spreadsheet openLazy(Path path) throws IOException {
+        LazyS2VStorage storage = LazyS2VStorage.open(path);
+        Spreadsheet sheet = new Spreadsheet(storage);
+        storage.onFormulaLoaded(sheet::registerLoadedFormula);
+        return sheet;
+    }
+
+    /**
+     * Loads {@code path} into an existing sheet, replacing its contents. Fails
+     * instead of truncating if the file does not fit a fixed-size sheet.
+     */
     public void load(Spreadsheet sheet, Path path) throws IOException {
-        List<String> lines = Files.readAllLines(path);
+        SheetEvents.Load event = new SheetEvents.Load();
+        event.begin();
+        long start = RecalcMetrics.start();
+        int[] extent = S2VScanner.extent(path);
         int rows = sheet.getInternalRowCount();
         int cols = sheet.getInternalColCount();
-        for (int r = 0; r < rows; r++) {
-            String line = r < lines.size() ? lines.get(r) : "";
-            String[] parts = line.split(";", -1);
-            for (int c = 0; c < cols; c++) {
-                String raw = c < parts.length ? parts[c] : "";
-                if (raw == null) raw = "";
-                if (raw.startsWith("=")) raw = convertCommaToSemicolonInParens(raw);
-                CellContent cc;
-                if (raw.startsWith("=")) cc = new FormulaContent(raw);
-                else {
-                    try { double v = Double.parseDouble(raw); cc = new NumericContent(v); }
-                    catch (NumberFormatException ex) { cc = new TextContent(raw); }
-                }
-                sheet.setCellFromLoad(r + 1, c + 1, cc);
+        if (!sheet.isGrowable() && (extent[0] > rows || extent[1] > cols)) {
+            throw new IllegalArgumentException("File needs " + extent[0] + "x" + extent[1]
+                    + " cells but the sheet is " + rows + "x" + cols);
+        }
+        CellLoader loader = new CellLoader(sheet, true);
+        int fileRows = S2VScanner.scan(path, loader);
+        for (int r = fileRows; r < rows; r++) loader.clearFrom(r, 0);
+        loader.bulk.finish();
+        if (start != 0) RecalcMetrics.loaded(Files.size(path), System.nanoTime() - start);
+        if (event.shouldCommit()) SheetEvents.commit(event, path, "s2v", Files.size(path), sheet);
+    }
+
+    /** Turns scanned fields into cells through the sheet's bulk-load path. */
+    private static final class CellLoader implements S2VScanner.Sink {
+        private final Spreadsheet sheet;
+        final Spreadsheet.BulkLoad bulk;
+        // When loading over an existing sheet, cells the file does not mention are cleared
+        private final boolean replace;
+
+        CellLoader(Spreadsheet sheet, boolean replace) {
+            this.sheet = sheet;
+            this.bulk = sheet.beginBulkLoad();
+            this.replace = replace;
+        }
 
+        @Override
+        public void field(int row, int col, byte[] bytes, int len) {
+            if (len == 0) {
+                if (replace) clear(row, col);
+                return;
+            }
+            String raw = S2VScanner.decode(bytes, len);
+            if (raw.startsWith("=")) {
+                if (raw.indexOf(',') >= 0) raw = convertCommaToSemicolonInParens(raw);
+                bulk.putFormula(row + 1, col + 1, raw);
+                return;
             }
+            bulk.put(row + 1, col + 1, CellContentFactory.fromRaw(raw, row + 1, col + 1));
+        }
+
+        @Override
+        public void endRow(int row, int fields) {
+            if (replace) clearFrom(row, fields);
+        }
+
+        void clearFrom(int row, int col) {
+            int cols = sheet.getInternalColCount();
+            for (int c = col; c < cols; c++) clear(row, c);
+        }
+
+        private void clear(int row, int col) {
+            if (!sheet.getCellInternal(row, col).getContent().isEmpty())
+                bulk.put(row + 1, col + 1, new EmptyContent());
         }
     }
 
 
-    private static String convertSemicolonToCommaInParens(String s) {
+    static String convertSemicolonToCommaInParens(String s) {
         StringBuilder sb = new StringBuilder();
         int depth = 0;
         for (char ch : s.toCharArray()) {
@@ -67,7 +263,7 @@ public final class S2VSerializer {
         return sb.toString();
     }
 
-    private static String convertCommaToSemicolonInParens(String s) {
+    static String convertCommaToSemicolonInParens(String s) {
         StringBuilder sb = new StringBuilder();
         int depth = 0;
         for (char ch : s.toCharArray()) {
@@ -0,0 +1,108 @@
+import java.nio.file.Path;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight Recorder events for sheet operations, so a profile shows which load,
+ * edit or recalculation the sampled JDK frames belong to. Each is created,
+ * begun and committed around its operation; with no recording running, or the
+ * event switched off, {@code shouldCommit()} is false and nothing else is
+ * computed. Enable them with the "Spreadsheet" category or by name.
+ */
+final class SheetEvents {
+
+    private SheetEvents() {}
+
+    @Name("spreadsheet.Load")
+    @Label("Sheet Load")
+    @Category("Spreadsheet")
+    static final class Load extends Event {
+        @Label("Path") String path;
+        @Label("Format") String format;
+        @Label("Size") @DataAmount long bytes;
+        @Label("Rows") int rows;
+        @Label("Columns") int cols;
+    }
+
+    @Name("spreadsheet.Save")
+    @Label("Sheet Save")
+    @Category("Spreadsheet")
+    static final class Save extends Event {
+        @Label("Path") String path;
+        @Label("Format") String format;
+        @Label("Size") @DataAmount long bytes;
+    }
+
+    @Name("spreadsheet.SetCell")
+    @Label("Set Cell")
+    @Category("Spreadsheet")
+    static final class SetCell extends Event {
+        @Label("Cell") String cell;
+        @Label("Content Type") String type;
+        @Label("Dependency Count") @Description("Single cells and ranges the new content reads") int dependencies;
+        @Label("Range Size") @Description("Cells covered by the ranges the new content reads") long rangeCells;
+    }
+
+    @Name("spreadsheet.Invalidate")
+    @Label("Invalidate")
+    @Category("Spreadsheet")
+    @StackTrace(false)
+    static final class Invalidate extends Event {
+        @Label("Cell") @Description("Edited cell, or the first of a transaction") String cell;
+        @Label("Edited Cells") int edited;
+        @Label("Invalidated Cells") @Description("Edited cells plus every cell reading them") int invalidated;
+    }
+
+    @Name("spreadsheet.Recompute")
+    @Label("Recompute All")
+    @Category("Spreadsheet")
+    static final class Recompute extends Event {
+        @Label("Formulas") @Description("Formula cells that read at least one other cell") int formulas;
+        @Label("Parallel") boolean parallel;
+    }
+
+    @Name("spreadsheet.SlowFormula")
+    @Label("Slow Formula")
+    @Description("One formula evaluation, its stale inputs excluded, that took longer than the threshold")
+    @Category("Spreadsheet")
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static final class SlowFormula extends Event {
+        @Label("Cell") String cell;
+        @Label("Formula") String formula;
+        @Label("Dependency Count") int dependencies;
+        @Label("Range Size") long rangeCells;
+    }
+
+    static void commit(Load event, Path path, String format, long bytes, Spreadsheet sheet) {
+        event.path = path.toString();
+        event.format = format;
+        event.bytes = bytes;
+        event.rows = sheet.getInternalRowCount();
+        event.cols = sheet.getInternalColCount();
+        event.commit();
+    }
+
+    static void commit(Save event, Path path, String format, long bytes) {
+        event.path = path.toString();
+        event.format = format;
+        event.bytes = bytes;
+        event.commit();
+    }
+
+    /** Cells covered by the multi-cell references among {@code refs}. */
+    static long rangeCells(int[] refs) {
+        long n = 0;
+        for (int i = 0; i < refs.length; i += 4) {
+            if (refs[i] == refs[i + 2] && refs[i + 1] == refs[i + 3]) continue;
+            n += (long) (refs[i + 2] - refs[i] + 1) * (refs[i + 3] - refs[i + 1] + 1);
+        }
+        return n;
+    }
+}
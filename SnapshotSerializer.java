@@ -0,0 +1,352 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Versioned binary snapshot of a sheet. Cells are stored column by column in
+ * typed blocks (numbers, interned text, formulas), formulas carry their parsed
+ * program, dependency edges and last computed value, and the whole file is
+ * covered by a CRC32. Opening a snapshot neither tokenizes nor recalculates.
+ *
+ * <pre>
+ * header   magic, version, rows, cols
+ * strings  every text, formula source and token text once
+ * programs shared formula templates, resolved relative to their origin
+ * columns  per non-empty column: numeric, text and formula blocks
+ * trailer  CRC32 of everything before it
+ * </pre>
+ */
+public final class SnapshotSerializer {
+
+    private static final int MAGIC = 0x53325642; // "S2VB"
+    private static final int VERSION = 1;
+    private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+    public void save(Spreadsheet sheet, Path path) throws IOException {
+        SheetEvents.Save event = new SheetEvents.Save();
+        event.begin();
+        long start = RecalcMetrics.start();
+        byte[] image = encode(sheet);
+        write(image, path);
+        if (start != 0) RecalcMetrics.saved(image.length, System.nanoTime() - start);
+        if (event.shouldCommit()) SheetEvents.commit(event, path, "snapshot", image.length);
+    }
+
+    /** The complete snapshot file for {@code sheet}, built in memory. */
+    byte[] encode(Spreadsheet sheet) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+        DataOutputStream out = new DataOutputStream(bytes);
+        Collector c = new Collector(sheet);
+        sheet.forEachCellInternal(c);
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(sheet.getInternalRowCount());
+        out.writeInt(sheet.getInternalColCount());
+
+        List<ParsedFormula> programs = c.programs;
+        for (ParsedFormula f : programs) {
+            for (Token t : f.postfix) c.intern(t.text);
+            for (String ref : f.referencedCells) c.intern(ref);
+        }
+        out.writeInt(c.strings.size());
+        for (String s : c.stringList) {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(b.length);
+            out.write(b);
+        }
+
+        out.writeInt(programs.size());
+        for (ParsedFormula f : programs) writeProgram(out, f, c);
+
+        int blocks = 0;
+        for (Column col : c.columns) if (col != null) blocks++;
+        out.writeInt(blocks);
+        for (int i = 0; i < c.columns.length; i++) {
+            Column col = c.columns[i];
+            if (col != null) col.write(out, i + 1);
+        }
+        out.flush();
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray(), 0, bytes.size());
+        out.writeLong(crc.getValue());
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /** Durably replaces {@code path} with an encoded snapshot: write, fsync, rename. */
+    static void write(byte[] image, Path path) throws IOException {
+        Path tmp = S2VSerializer.tempFileFor(path);
+        try {
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                ByteBuffer buf = ByteBuffer.wrap(image);
+                while (buf.hasRemaining()) ch.write(buf);
+                ch.force(true);
+            }
+            S2VSerializer.replace(tmp, path);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    public Spreadsheet load(Path path) throws IOException {
+        SheetEvents.Load event = new SheetEvents.Load();
+        event.begin();
+        long start = RecalcMetrics.start();
+        byte[] data = Files.readAllBytes(path);
+        if (data.length < 24) throw new IOException("Not a spreadsheet snapshot: " + path);
+        ByteBuffer in = ByteBuffer.wrap(data);
+        if (in.getInt() != MAGIC) throw new IOException("Not a spreadsheet snapshot: " + path);
+        int version = in.getInt();
+        if (version != VERSION) throw new IOException("Unsupported snapshot version " + version);
+
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 8);
+        if (crc.getValue() != in.getLong(data.length - 8))
+            throw new IOException("Snapshot checksum mismatch: " + path);
+
+        Spreadsheet sheet = Spreadsheet.tiled(in.getInt(), in.getInt());
+
+        String[] strings = new String[in.getInt()];
+        for (int i = 0; i < strings.length; i++) {
+            int len = in.getInt();
+            strings[i] = new String(data, in.position(), len, StandardCharsets.UTF_8);
+            in.position(in.position() + len);
+        }
+
+        FormulaCache.Template[] templates = new FormulaCache.Template[in.getInt()];
+        for (int i = 0; i < templates.length; i++) {
+            ParsedFormula f = readProgram(in, strings);
+            templates[i] = new FormulaCache.Template(f, FormulaCompiler.ENABLED ? FormulaCompiler.compile(f) : null);
+        }
+
+        // One content object per distinct text; cells only read it
+        TextContent[] texts = new TextContent[strings.length];
+        for (int blocks = in.getInt(); blocks > 0; blocks--) {
+            int col = in.getInt();
+
+            int[] rows = readInts(in);
+            double[] values = readDoubles(in);
+            for (int i = 0; i < rows.length; i++)
+                sheet.restoreCell(rows[i], col, new NumericContent(values[i]), DependencyGraph.NONE);
+
+            rows = readInts(in);
+            int[] idx = readInts(in);
+            for (int i = 0; i < rows.length; i++) {
+                TextContent t = texts[idx[i]];
+                if (t == null) texts[idx[i]] = t = new TextContent(strings[idx[i]]);
+                sheet.restoreCell(rows[i], col, t, DependencyGraph.NONE);
+            }
+
+            rows = readInts(in);
+            int[] raws = readInts(in);
+            int[] programs = readInts(in);
+            int[] origins = readInts(in);
+            byte[] hasValue = new byte[rows.length];
+            in.get(hasValue);
+            values = readDoubles(in);
+            for (int i = 0; i < rows.length; i++) {
+                long[] cells = new long[in.getInt()];
+                in.asLongBuffer().get(cells);
+                in.position(in.position() + cells.length * 8);
+                DependencyGraph.Precedents deps = new DependencyGraph.Precedents(cells, readInts(in));
+                FormulaContent fc = new FormulaContent(strings[raws[i]],
+                        origins[2 * i], origins[2 * i + 1], templates[programs[i]]);
+                if (hasValue[i] != 0) fc.restoreCachedValue(values[i]);
+                sheet.restoreCell(rows[i], col, fc, deps.isEmpty() ? DependencyGraph.NONE : deps);
+            }
+        }
+        if (start != 0) RecalcMetrics.loaded(data.length, System.nanoTime() - start);
+        if (event.shouldCommit()) SheetEvents.commit(event, path, "snapshot", data.length, sheet);
+        return sheet;
+    }
+
+    private static void writeProgram(DataOutputStream out, ParsedFormula f, Collector c) throws IOException {
+        out.writeInt(f.postfix.size());
+        for (Token t : f.postfix) {
+            out.writeByte(t.type.ordinal());
+            out.writeInt(c.intern(t.text));
+        }
+        out.writeInt(f.referencedCells.size());
+        for (String ref : f.referencedCells) out.writeInt(c.intern(ref));
+        writeInts(out, f.references, f.references.length);
+        writeInts(out, f.code, f.code.length);
+        writeDoubles(out, f.numbers, f.numbers.length);
+        writeInts(out, f.cells, f.cells.length);
+        out.writeInt(f.maxDepth);
+    }
+
+    private static ParsedFormula readProgram(ByteBuffer in, String[] strings) {
+        int tokens = in.getInt();
+        List<Token> postfix = new ArrayList<>(tokens);
+        for (int i = 0; i < tokens; i++) {
+            TokenType type = TOKEN_TYPES[in.get()];
+            postfix.add(new Token(type, strings[in.getInt()]));
+        }
+        int refs = in.getInt();
+        Set<String> referenced = new LinkedHashSet<>(refs * 2);
+        for (int i = 0; i < refs; i++) referenced.add(strings[in.getInt()]);
+        int[] references = readInts(in);
+        int[] code = readInts(in);
+        double[] numbers = readDoubles(in);
+        int[] cells = readInts(in);
+        return new ParsedFormula(postfix, referenced, references, code, numbers, cells, in.getInt());
+    }
+
+    private static void writeInts(DataOutputStream out, int[] a, int n) throws IOException {
+        out.writeInt(n);
+        for (int i = 0; i < n; i++) out.writeInt(a[i]);
+    }
+
+    private static void writeDoubles(DataOutputStream out, double[] a, int n) throws IOException {
+        out.writeInt(n);
+        for (int i = 0; i < n; i++) out.writeDouble(a[i]);
+    }
+
+    private static int[] readInts(ByteBuffer in) {
+        int[] a = new int[in.getInt()];
+        in.asIntBuffer().get(a);
+        in.position(in.position() + a.length * 4);
+        return a;
+    }
+
+    private static double[] readDoubles(ByteBuffer in) {
+        double[] a = new double[in.getInt()];
+        in.asDoubleBuffer().get(a);
+        in.position(in.position() + a.length * 8);
+        return a;
+    }
+
+    /** Sorts visited cells into per-column typed blocks and interns every string. */
+    private static final class Collector implements SpreadsheetStorage.CellVisitor {
+        private final Spreadsheet sheet;
+        final Map<String, Integer> strings = new HashMap<>();
+        final List<String> stringList = new ArrayList<>();
+        final Map<ParsedFormula, Integer> templates = new IdentityHashMap<>();
+        // templates in index order
+        final List<ParsedFormula> programs = new ArrayList<>();
+        Column[] columns;
+
+        Collector(Spreadsheet sheet) {
+            this.sheet = sheet;
+            this.columns = new Column[sheet.getInternalColCount()];
+        }
+
+        int intern(String s) {
+            Integer i = strings.get(s);
+            if (i != null) return i;
+            strings.put(s, stringList.size());
+            stringList.add(s);
+            return stringList.size() - 1;
+        }
+
+        @Override
+        public void visit(int r, int c, Cell cell) {
+            CellContent cc = cell.getContent();
+            if (cc.isEmpty()) return;
+            if (c >= columns.length) columns = Arrays.copyOf(columns, c + 1);
+            Column col = columns[c];
+            if (col == null) columns[c] = col = new Column();
+
+            if (cc instanceof NumericContent) {
+                col.numbers.add(r + 1, cc.getNumericValue(sheet));
+            } else if (cc instanceof FormulaContent) {
+                FormulaContent fc = (FormulaContent) cc;
+                ParsedFormula f = fc.getParsed();
+                Integer program = templates.get(f);
+                if (program == null) {
+                    program = programs.size();
+                    templates.put(f, program);
+                    programs.add(f);
+                }
+                Double v = fc.cachedValue();
+                col.formulas.add(r + 1, v == null ? 0.0 : v);
+                col.raws.add(intern(fc.getRaw()));
+                col.programs.add(program);
+                col.origins.add(fc.originRow());
+                col.origins.add(fc.originCol());
+                col.hasValue.add(v == null ? 0 : 1);
+                col.deps.add(sheet.precedentsOf(r + 1, c + 1));
+            } else {
+                col.texts.add(r + 1, intern(cc.getRaw()));
+            }
+        }
+    }
+
+    private static final class Column {
+        final Entries numbers = new Entries();
+        final Entries texts = new Entries();
+        final Entries formulas = new Entries();
+        final Ints raws = new Ints();
+        final Ints programs = new Ints();
+        // (row, col) pairs the formula's template is resolved against
+        final Ints origins = new Ints();
+        final Ints hasValue = new Ints();
+        final List<DependencyGraph.Precedents> deps = new ArrayList<>();
+
+        void write(DataOutputStream out, int col) throws IOException {
+            out.writeInt(col);
+            writeInts(out, numbers.rows.a, numbers.rows.n);
+            writeDoubles(out, numbers.values, numbers.rows.n);
+
+            writeInts(out, texts.rows.a, texts.rows.n);
+            writeInts(out, texts.refs.a, texts.refs.n);
+
+            writeInts(out, formulas.rows.a, formulas.rows.n);
+            writeInts(out, raws.a, raws.n);
+            writeInts(out, programs.a, programs.n);
+            writeInts(out, origins.a, origins.n);
+            for (int i = 0; i < hasValue.n; i++) out.writeByte(hasValue.a[i]);
+            writeDoubles(out, formulas.values, formulas.rows.n);
+            for (DependencyGraph.Precedents p : deps) {
+                out.writeInt(p.cells.length);
+                for (long id : p.cells) out.writeLong(id);
+                writeInts(out, p.ranges, p.ranges.length);
+            }
+        }
+    }
+
+    /** Row numbers with either a double or an int per row. */
+    private static final class Entries {
+        final Ints rows = new Ints();
+        final Ints refs = new Ints();
+        double[] values = new double[16];
+
+        void add(int row, double value) {
+            if (rows.n == values.length) values = Arrays.copyOf(values, values.length * 2);
+            values[rows.n] = value;
+            rows.add(row);
+        }
+
+        void add(int row, int ref) {
+            rows.add(row);
+            refs.add(ref);
+        }
+    }
+
+    private static final class Ints {
+        int[] a = new int[16];
+        int n;
+
+        void add(int v) {
+            if (n == a.length) a = Arrays.copyOf(a, n * 2);
+            a[n++] = v;
+        }
+    }
+}
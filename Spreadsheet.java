@@ -1,42 +1,222 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
 
 class Spreadsheet {
 
     private final SpreadsheetStorage storage;
-    private final Map<String, Set<String>> dependsOn = new HashMap<>();
-    private final Map<String, Set<String>> dependents = new HashMap<>();
+    private final DependencyGraph graph = new DependencyGraph();
+    private final AggregateIndex aggregates;
+    // A pinned version from snapshot(); every edit is refused
+    private final boolean readOnly;
+    // Logs every edit and transaction before it is applied, if the sheet is journaled
+    private ChangeJournal journal;
+    // Set by concurrent(); null keeps a single-threaded sheet free of any locking
+    private StampedLock lock;
+    // Thread holding the write lock. Only the writer itself can ever see its own
+    // thread here, so a plain field is enough for the reentrancy check.
+    private Thread writer;
+    // Whether a thread already holds this sheet's read lock; StampedLock is not reentrant.
+    // One per sheet, so holding another sheet's read lock does not count. Set with the lock.
+    private ThreadLocal<boolean[]> reading;
+    // Latest committed version of a versioned sheet, once snapshot() has been asked for one
+    private volatile Spreadsheet published;
 
     public Spreadsheet(int rows, int cols) {
-        this.storage = new ArrayStorage(rows, cols);
+        this(new ArrayStorage(rows, cols));
+    }
+
+    public Spreadsheet(SpreadsheetStorage storage) {
+        this(storage, false);
+    }
+
+    private Spreadsheet(SpreadsheetStorage storage, boolean readOnly) {
+        if (storage == null) throw new IllegalArgumentException("storage must not be null");
+        this.storage = storage;
+        this.aggregates = new AggregateIndex(storage);
+        this.readOnly = readOnly;
+    }
+
+    /** Sparse, growable sheet backed by {@link TiledStorage}. */
+    static Spreadsheet tiled(int rows, int cols) {
+        return new Spreadsheet(new TiledStorage(rows, cols));
+    }
+
+    /** Sparse, growable sheet whose committed states can be pinned with {@link #snapshot()}. */
+    static Spreadsheet versioned(int rows, int cols) {
+        return new Spreadsheet(new VersionedStorage(rows, cols));
+    }
+
+    /**
+     * The sheet as of its last committed edit, frozen. The snapshot shares
+     * unchanged tiles and formula values with this sheet and is read without
+     * any locking, while edits here go on building the next version. Values
+     * still uncached are computed against the snapshot's own cells. Snapshots
+     * taken with no edit in between are the same object; one that no reader
+     * references any more is reclaimed by the garbage collector.
+     * <p>
+     * Only the first call takes the edit lock. From then on every edit
+     * publishes its version as it commits, so this is a volatile read, and
+     * the next edit copies the tiles it writes even if nobody pinned the last
+     * version.
+     */
+    Spreadsheet snapshot() {
+        Spreadsheet s = published;
+        if (s != null) return s;
+        if (!(storage instanceof VersionedStorage))
+            throw new IllegalStateException("Only versioned sheets have snapshots");
+        long stamp = lockWrite();
+        try {
+            publish();
+            return published;
+        } finally {
+            unlockWrite(stamp);
+        }
+    }
+
+    // Under the edit lock; the same version again if nothing was written since the last call
+    private void publish() {
+        VersionedStorage.Snapshot v = ((VersionedStorage) storage).snapshot();
+        if (v.sheet == null) v.sheet = new Spreadsheet(v, true);
+        published = v.sheet;
+    }
+
+    /**
+     * Lets any number of threads read this sheet while edits are made, and
+     * returns it. Call it before the sheet is handed to other threads.
+     * Cell lookups are optimistic and retried under the read lock only if an
+     * edit overlapped them. A formula whose value is not cached is evaluated
+     * under the read lock. Edits, transactions and full recalculations take the
+     * write lock, so a reader sees each edit either not at all or completely,
+     * and no value computed from inputs an edit replaced survives that edit.
+     */
+    Spreadsheet concurrent() {
+        if (!storage.isFullyLoaded())
+            throw new IllegalStateException("A lazily loaded sheet cannot be shared between threads");
+        if (lock == null) {
+            reading = ThreadLocal.withInitial(() -> new boolean[1]);
+            lock = new StampedLock();
+        }
+        return this;
+    }
+
+    boolean isConcurrent() {
+        return lock != null;
     }
 
     // ---------- Dependency handling ----------
 
 
     public void setCellFromLoad(int row, int col, CellContent content) {
-        String coord = indicesToCoord(row, col);
+        long id = CellId.of(row, col);
 
-        Set<String> newDeps = Set.of();
+        DependencyGraph.Precedents newDeps = DependencyGraph.NONE;
         if (content instanceof FormulaContent fc) {
-            newDeps = new HashSet<>(expandDependencies(fc.getParsed().referencedCells));
+            newDeps = collectDependencies(fc);
+        }
+
+        long stamp = lockWrite();
+        try {
+            graph.setPrecedents(id, newDeps);
+            store(row - 1, col - 1, new Cell(content));
+        } finally {
+            unlockWrite(stamp);
+        }
+    }
 
+    /** Starts a bulk load; see {@link BulkLoad}. */
+    BulkLoad beginBulkLoad() {
+        if (lock != null) throw new IllegalStateException("Bulk loads must finish before a sheet is shared");
+        return new BulkLoad();
+    }
+
+    /**
+     * Batched load path. Plain cells are stored as they arrive; formula text is
+     * only collected. {@link #finish()} then parses all formulas in parallel,
+     * adds their dependency edges in one pass, rejects cycles once for the whole
+     * graph and runs a single recalculation. A cycle is found before any formula
+     * is stored: the formula cells keep their old contents and edges, while the
+     * plain cells already put stay.
+     */
+    final class BulkLoad {
+        private int[] rows = new int[64];
+        private int[] cols = new int[64];
+        private String[] raws = new String[64];
+        private int formulas;
+        private long cells;
+
+        private BulkLoad() {}
+
+        void put(int row, int col, CellContent content) {
+            if (content instanceof FormulaContent) {
+                throw new IllegalArgumentException("Use putFormula for formula cells");
+            }
+            graph.removePrecedents(CellId.of(row, col));
+            store(row - 1, col - 1, new Cell(content));
+            cells++;
         }
 
-        removeOldDependencies(coord);
-        addNewDependencies(coord, newDeps);
+        void putFormula(int row, int col, String raw) {
+            if (formulas == raws.length) {
+                int cap = formulas * 2;
+                rows = Arrays.copyOf(rows, cap);
+                cols = Arrays.copyOf(cols, cap);
+                raws = Arrays.copyOf(raws, cap);
+            }
+            rows[formulas] = row;
+            cols[formulas] = col;
+            raws[formulas++] = raw;
+            cells++;
+        }
 
+        /** Number of cells put so far. */
+        long cellCount() {
+            return cells;
+        }
 
-        storage.setCell(row - 1, col - 1, new Cell(content));
+        void finish() {
+            int n = formulas;
+            FormulaContent[] parsed = new FormulaContent[n];
+            DependencyGraph.Precedents[] deps = new DependencyGraph.Precedents[n];
+            ForkJoinPool pool = ForkJoinPool.commonPool();
+            pool.submit(() -> IntStream.range(0, n).parallel().forEach(i -> {
+                parsed[i] = new FormulaContent(raws[i], rows[i], cols[i]);
+                deps[i] = collectDependencies(parsed[i]);
+            })).join();
+            raws = null;
+
+            DependencyGraph.Precedents[] old = new DependencyGraph.Precedents[n];
+            for (int i = 0; i < n; i++) {
+                long id = CellId.of(rows[i], cols[i]);
+                old[i] = graph.precedentsOf(id);
+                graph.setPrecedents(id, deps[i]);
+            }
+            if (!graph.isAcyclic()) {
+                // Back to the edges of the formulas still stored; a subset of an acyclic graph stays acyclic
+                for (int i = 0; i < n; i++) graph.removePrecedents(CellId.of(rows[i], cols[i]));
+                for (int i = 0; i < n; i++) graph.setPrecedents(CellId.of(rows[i], cols[i]), old[i]);
+                clearAllFormulaCaches();
+                throw new IllegalStateException("Circular dependency detected");
+            }
+            for (int i = 0; i < n; i++) store(rows[i] - 1, cols[i] - 1, new Cell(parsed[i]));
+
+            recomputeAll(pool);
+        }
     }
 
     void clearAllFormulaCaches() {
-        for (Cell[] row : storage.rowsIterable()) {
-            for (Cell c : row) {
-                if (c.getContent() instanceof FormulaContent fc) {
-                    fc.clearCache();
-                }
+        storage.forEachCell((r, c, cell) -> {
+            if (cell.getContent() instanceof FormulaContent fc) {
+                fc.clearCache();
             }
-        }
+        });
     }
 
 
@@ -45,67 +225,234 @@ class Spreadsheet {
 
 
     public void setCell(int row, int col, CellContent content) {
-        String coord = indicesToCoord(row, col);
+        SheetEvents.SetCell event = new SheetEvents.SetCell();
+        event.begin();
+        long id = CellId.of(row, col);
 
-        Set<String> newDeps = Set.of();
+        DependencyGraph.Precedents newDeps = DependencyGraph.NONE;
         if (content instanceof FormulaContent fc) {
-            newDeps = expandDependencies(fc.getParsed().referencedCells);
-
-            if (wouldCreateCycle(coord, newDeps))
-                throw new IllegalStateException("Circular dependency detected");
+            newDeps = collectDependencies(fc);
         }
+        loadReachable(id, content);
+
+        long[] ids = {id};
+        ChangeJournal j;
+        long seq = 0;
+        long stamp = lockWrite();
+        try {
+            j = journal;
+            DependencyGraph.Precedents old = j != null ? graph.precedentsOf(id) : null;
+            if (!graph.trySetPrecedents(id, newDeps))
+                throw new IllegalStateException("Circular dependency detected");
+            if (j != null) {
+                try {
+                    seq = j.append(ids, new CellContent[]{content});
+                } catch (RuntimeException ex) {
+                    graph.setPrecedents(id, old);
+                    throw ex;
+                }
+            }
 
-        removeOldDependencies(coord);
-        addNewDependencies(coord, newDeps);
+            store(row - 1, col - 1, new Cell(content));
+            invalidate(ids);
+        } finally {
+            unlockWrite(stamp);
+        }
+        if (j != null) j.await(seq);
+        if (event.shouldCommit()) {
+            event.cell = CellId.toCoord(id);
+            event.type = content == null ? "EMPTY" : content.getType();
+            event.dependencies = newDeps.cells.length + newDeps.ranges.length / 4;
+            event.rangeCells = SheetEvents.rangeCells(newDeps.ranges);
+            event.commit();
+        }
+    }
 
-        storage.setCell(row - 1, col - 1, new Cell(content));
-        invalidate(coord);
+    /** Starts a batch of edits; see {@link Transaction}. */
+    Transaction begin() {
+        return new Transaction();
     }
 
-    private boolean wouldCreateCycle(String cell, Set<String> newDeps) {
-        for (String dep : newDeps) {
-            if (detectCycle(cell, dep, new HashSet<>())) return true;
+    /**
+     * Multi-cell edit applied all at once. Staged writes touch nothing until
+     * {@link #commit()}, which parses staged formulas, swaps in every new set of
+     * dependency edges, checks once for cycles through the edited cells and then
+     * invalidates the union of their dependents in a single walk. If a formula
+     * fails to parse or a cycle appears, the sheet is left exactly as it was.
+     * Later writes to the same cell replace earlier ones.
+     */
+    final class Transaction {
+        private final CellIdMap<Object> staged = new CellIdMap<>();
+        private long[] order = new long[16];
+        private int size;
+        private boolean done;
+
+        private Transaction() {}
+
+        Transaction set(int row, int col, CellContent content) {
+            stage(row, col, content);
+            return this;
+        }
+
+        /** Stages formula text; it is parsed at commit, so a bad formula rolls back the whole batch. */
+        Transaction setFormula(int row, int col, String raw) {
+            stage(row, col, raw);
+            return this;
+        }
+
+        // Coordinates are checked here, so a commit can only fail on a formula or a cycle
+        private void stage(int row, int col, Object value) {
+            if (done) throw new IllegalStateException("Transaction already finished");
+            if (row < 1 || col < 1
+                    || (!storage.isGrowable() && (row > storage.getRowCount() || col > storage.getColCount())))
+                throw new IndexOutOfBoundsException("Cell out of bounds: " + row + "," + col);
+            long id = CellId.of(row, col);
+            if (!staged.containsKey(id)) {
+                if (size == order.length) order = Arrays.copyOf(order, size * 2);
+                order[size++] = id;
+            }
+            staged.put(id, value);
+        }
+
+        /** Discards every staged write. */
+        void rollback() {
+            done = true;
         }
-        return false;
-    }
 
-    private boolean detectCycle(String start, String current, Set<String> visited) {
-        if (start.equals(current)) return true;
-        if (!visited.add(current)) return false;
-        for (String d : dependsOn.getOrDefault(current, Set.of())) {
-            if (detectCycle(start, d, visited)) return true;
+        void commit() {
+            if (done) throw new IllegalStateException("Transaction already finished");
+            done = true;
+            long[] ids = Arrays.copyOf(order, size);
+
+            CellContent[] contents = new CellContent[size];
+            DependencyGraph.Precedents[] deps = new DependencyGraph.Precedents[size];
+            for (int i = 0; i < size; i++) {
+                long id = ids[i];
+                Object v = staged.get(id);
+                contents[i] = v instanceof String raw
+                        ? new FormulaContent(raw, CellId.row(id), CellId.col(id))
+                        : (CellContent) v;
+                deps[i] = contents[i] instanceof FormulaContent fc ? collectDependencies(fc) : DependencyGraph.NONE;
+            }
+            for (int i = 0; i < size; i++) loadReachable(ids[i], contents[i]);
+
+            ChangeJournal j;
+            long seq;
+            long stamp = lockWrite();
+            try {
+                j = journal;
+                seq = apply(ids, contents, deps, j);
+            } finally {
+                unlockWrite(stamp);
+            }
+            if (j != null) j.await(seq);
+        }
+
+        // Returns the journal record's sequence number, or 0 when the sheet is not journaled
+        private long apply(long[] ids, CellContent[] contents, DependencyGraph.Precedents[] deps,
+                           ChangeJournal j) {
+            // Drop the old edges first: any subset of an acyclic edge set is acyclic, so adding the
+            // new ones one by one only fails if the final graph would hold a cycle
+            DependencyGraph.Precedents[] old = new DependencyGraph.Precedents[size];
+            for (int i = 0; i < size; i++) {
+                old[i] = graph.precedentsOf(ids[i]);
+                graph.removePrecedents(ids[i]);
+            }
+            for (int i = 0; i < size; i++) {
+                if (graph.trySetPrecedents(ids[i], deps[i])) continue;
+                restore(ids, old, i);
+                throw new IllegalStateException("Circular dependency detected");
+            }
+            long seq = 0;
+            if (j != null) {
+                try {
+                    seq = j.append(ids, contents);
+                } catch (RuntimeException ex) {
+                    restore(ids, old, size);
+                    throw ex;
+                }
+            }
+
+            for (int i = 0; i < size; i++) {
+                store(CellId.row(ids[i]) - 1, CellId.col(ids[i]) - 1, new Cell(contents[i]));
+            }
+            invalidate(ids);
+            return seq;
+        }
+
+        // Puts back the edges replaced so far: drops the first `set` new sets, then restores every old one
+        private void restore(long[] ids, DependencyGraph.Precedents[] old, int set) {
+            for (int i = 0; i < set; i++) graph.removePrecedents(ids[i]);
+            for (int i = 0; i < size; i++) graph.setPrecedents(ids[i], old[i]);
         }
-        return false;
     }
 
-    private void removeOldDependencies(String coord) {
-        for (String dep : dependsOn.getOrDefault(coord, Set.of())) {
-            dependents.getOrDefault(dep, Set.of()).remove(coord);
+    void setJournal(ChangeJournal journal) {
+        this.journal = journal;
+    }
+
+    /** Runs {@code action} while no edit or recalculation is in progress, and returns its result. */
+    <T> T exclusive(Supplier<T> action) {
+        long stamp = lockWrite();
+        try {
+            return action.get();
+        } finally {
+            unlockWrite(stamp);
         }
-        dependsOn.remove(coord);
     }
 
-    private void addNewDependencies(String coord, Set<String> newDeps) {
-        if (newDeps.isEmpty()) return;
-        dependsOn.put(coord, new HashSet<>(newDeps));
-        for (String dep : newDeps) {
-            dependents.computeIfAbsent(dep, k -> new HashSet<>()).add(coord);
+    private void invalidate(long[] ids) {
+        SheetEvents.Invalidate event = new SheetEvents.Invalidate();
+        event.begin();
+        long[] stale = graph.downstreamOf(ids);
+        clearCaches(stale);
+        if (event.shouldCommit()) {
+            event.cell = ids.length > 0 ? CellId.toCoord(ids[0]) : null;
+            event.edited = ids.length;
+            event.invalidated = stale.length;
+            event.commit();
         }
     }
 
-    private void invalidate(String coord) {
-        //System.out.println("Invalidating: " + coord);
-        CellContent cc = getCell(coord).getContent();
-        if (cc instanceof FormulaContent fc) fc.clearCache();
-        for (String d : dependents.getOrDefault(coord, Set.of())) {
-            invalidate(d);
+    private void clearCaches(long[] ids) {
+        RecalcMetrics.invalidated(ids.length);
+        boolean versioned = storage instanceof VersionedStorage;
+        for (long d : ids) {
+            int r = CellId.row(d) - 1;
+            int c = CellId.col(d) - 1;
+            if (!(storage.getCell(r, c).getContent() instanceof FormulaContent fc)) continue;
+            // A snapshot may share this formula and its value; the new version gets a copy of its own.
+            // Formula stays formula, so the aggregate index needs no update.
+            if (versioned) storage.setCell(r, c, new Cell(fc.copy()));
+            else fc.clearCache();
         }
     }
 
     // ---------- Access ----------
 
     public Cell getCell(int row, int col) {
-        return storage.getCell(row - 1, col - 1);
+        StampedLock l = lock;
+        if (l == null) return storage.getCell(row - 1, col - 1);
+        long stamp = l.tryOptimisticRead();
+        if (stamp != 0) {
+            Cell cell;
+            try {
+                cell = storage.getCell(row - 1, col - 1);
+            } catch (RuntimeException ex) {
+                // A read racing an edit can trip over a half-grown array; only a validated failure is real
+                if (l.validate(stamp)) throw ex;
+                cell = null;
+            }
+            if (cell != null && l.validate(stamp)) return cell;
+        } else if (writer == Thread.currentThread()) {
+            return storage.getCell(row - 1, col - 1);
+        }
+        stamp = lockRead();
+        try {
+            return storage.getCell(row - 1, col - 1);
+        } finally {
+            unlockRead(stamp);
+        }
     }
 
     public Cell getCell(String coord) {
@@ -113,6 +460,44 @@ class Spreadsheet {
         return getCell(rc[0], rc[1]);
     }
 
+    /**
+     * Folds every value of the 1-based rectangle into {@code into}. Tall ranges
+     * are answered from the aggregate index instead of visiting each cell;
+     * other large ones are folded in bulk by {@link RangeKernel}.
+     */
+    void aggregateRange(int r1, int c1, int r2, int c2, Aggregate into) {
+        // The index treats rows past the end as empty, which only a growable sheet may do
+        if (r1 < 1 || c1 < 1 || (!storage.isGrowable() && (r2 > storage.getRowCount() || c2 > storage.getColCount())))
+            throw new IndexOutOfBoundsException("Range out of bounds: " + r1 + "," + c1 + ":" + r2 + "," + c2);
+        if (r2 - r1 + 1 >= AggregateIndex.THRESHOLD && storage.isFullyLoaded()) {
+            aggregates.aggregate(this, r1, c1, r2, c2, into);
+            return;
+        }
+        long cells = (long) (r2 - r1 + 1) * (c2 - c1 + 1);
+        RecalcMetrics.rangeScanned(cells);
+        if (RangeKernel.ENABLED && cells >= RangeKernel.MIN_CELLS) {
+            RangeKernel.aggregate(this, storage, r1, c1, r2, c2, into);
+            return;
+        }
+        for (int r = r1; r <= r2; r++)
+            for (int c = c1; c <= c2; c++)
+                into.add(getCell(r, c).getContent().getNumericValue(this));
+    }
+
+    /**
+     * Next 1-based row in [from, to] of column {@code col} whose value is not a
+     * constant (a formula or text), or -1. Backed by the aggregate index, so it
+     * skips runs of numeric and empty cells in O(log n).
+     */
+    int nextNonConstantRow(int col, int from, int to) {
+        if (storage.isFullyLoaded()) return aggregates.nextNonConstantRow(col, from, to);
+        for (int r = from; r <= to; r++) {
+            CellContent cc = getCell(r, col).getContent();
+            if (!(cc instanceof NumericContent || cc instanceof EmptyContent)) return r;
+        }
+        return -1;
+    }
+
     // ---------- Utilities ----------
 
     static int[] coordToIndices(String coord) {
@@ -130,17 +515,30 @@ class Spreadsheet {
         return res;
     }
 
-    private static String indicesToCoord(int row, int col) {
-        StringBuilder sb = new StringBuilder();
+    static String indicesToCoord(int row, int col) {
+        char[] label = new char[7];
+        int pos = label.length;
         while (col > 0) {
             col--;
-            sb.insert(0, (char) ('A' + col % 26));
+            label[--pos] = (char) ('A' + col % 26);
             col /= 26;
         }
-        return sb + Integer.toString(row);
+        return new String(label, pos, label.length - pos) + row;
     }
 
     public void printRawRegion(int r1, int c1, int r2, int c2) {
+        // One buffered write per region rather than one console write per cell
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+        try {
+            printRawRegion(r1, c1, r2, c2, out);
+            out.flush();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /** Writes the raw text of a region, one tab-separated line per row. */
+    void printRawRegion(int r1, int c1, int r2, int c2, Writer out) throws IOException {
         int rr1 = Math.min(r1, r2);
         int rr2 = Math.max(r1, r2);
         int cc1 = Math.min(c1, c2);
@@ -156,10 +554,12 @@ class Spreadsheet {
                 CellContent content = getCell(r, c).getContent();
                 String raw = content.getRaw();
                 if (raw == null || raw.isEmpty()) raw = "(empty)";
-                System.out.print("[" + raw + "]");
-                if (c < cc2) System.out.print("\t");
+                out.write('[');
+                out.write(raw);
+                out.write(']');
+                if (c < cc2) out.write('\t');
             }
-            System.out.println();
+            out.write(System.lineSeparator());
         }
     }
 
@@ -174,39 +574,152 @@ class Spreadsheet {
     }*/
 
     void recomputeAll() {
+        SheetEvents.Recompute event = new SheetEvents.Recompute();
+        event.begin();
+        long stamp = lockWrite();
+        try {
+            recompute();
+        } finally {
+            unlockWrite(stamp);
+        }
+        commit(event, false);
+    }
+
+    private void recompute() {
         clearAllFormulaCaches();
-        for (String coord : dependsOn.keySet()) {
-            getCell(coord).getContent().getNumericValue(this);
+        RecalcEngine engine = new RecalcEngine(this);
+        // In topological order every input is already cached, so each evaluation stays one frame deep
+        for (long id : graph.topologicalOrder()) {
+            if (getCell(CellId.row(id), CellId.col(id)).getContent() instanceof FormulaContent fc
+                    && !fc.hasCachedValue()) {
+                engine.evaluate(fc);
+            }
+        }
+    }
+
+    /**
+     * Same result as {@link #recomputeAll()}, but independent formulas are
+     * evaluated concurrently on {@code pool}, one dependency level at a time.
+     * A {@link #concurrent()} sheet recalculates on the calling thread instead,
+     * since pool workers could not read it while the edit lock is held.
+     */
+    void recomputeAll(ForkJoinPool pool) {
+        if (lock != null) {
+            recomputeAll();
+            return;
         }
+        SheetEvents.Recompute event = new SheetEvents.Recompute();
+        event.begin();
+        new ParallelRecalc(this, graph).run(pool);
+        if (published != null) publish();
+        commit(event, true);
     }
 
-    private Set<String> expandDependencies(Set<String> refs) {
-        Set<String> expanded = new HashSet<>();
+    private void commit(SheetEvents.Recompute event, boolean parallel) {
+        if (!event.shouldCommit()) return;
+        event.formulas = graph.formulaCount();
+        event.parallel = parallel;
+        event.commit();
+    }
 
-        for (String ref : refs) {
-            if (!ref.contains(":")) {
-                expanded.add(ref);
-                continue;
-            }
+    /** Evaluates a formula whose value is not cached, together with its stale inputs. */
+    double evaluate(FormulaContent formula) {
+        long stamp = lockRead();
+        try {
+            return new RecalcEngine(this).evaluate(formula);
+        } finally {
+            unlockRead(stamp);
+        }
+    }
+
+    // ---------- Locking ----------
 
-            // Expand range A1:B2 → A1,A2,B1,B2
-            String[] parts = ref.split(":");
-            int[] start = coordToIndices(parts[0]);
-            int[] end   = coordToIndices(parts[1]);
+    // Both return 0 when nothing was locked: a single-threaded sheet, or a thread that already holds a lock
+    private long lockWrite() {
+        if (readOnly) throw new IllegalStateException("Snapshots are read-only");
+        if (lock == null) return 0;
+        long stamp = lock.writeLock();
+        writer = Thread.currentThread();
+        return stamp;
+    }
+
+    // Commits the edit: a sheet with snapshots in use publishes its new version before others can write
+    private void unlockWrite(long stamp) {
+        if (published != null) publish();
+        if (stamp == 0) return;
+        writer = null;
+        lock.unlockWrite(stamp);
+    }
 
-            int rFrom = Math.min(start[0], end[0]);
-            int rTo   = Math.max(start[0], end[0]);
-            int cFrom = Math.min(start[1], end[1]);
-            int cTo   = Math.max(start[1], end[1]);
+    private long lockRead() {
+        StampedLock l = lock;
+        if (l == null || writer == Thread.currentThread()) return 0;
+        boolean[] held = reading.get();
+        if (held[0]) return 0;
+        long stamp = l.readLock();
+        held[0] = true;
+        return stamp;
+    }
 
-            for (int r = rFrom; r <= rTo; r++) {
-                for (int c = cFrom; c <= cTo; c++) {
-                    expanded.add(indicesToCoord(r, c));
+    private void unlockRead(long stamp) {
+        if (stamp == 0) return;
+        reading.get()[0] = false;
+        lock.unlockRead(stamp);
+    }
+
+    /**
+     * On a lazily opened sheet, parses the row of cell {@code id} and every row
+     * its new content reads, directly or through the formulas found there, so
+     * their edges are in the graph before it is checked for cycles. A cycle
+     * through {@code id} can only pass through formulas this walk reaches.
+     * Parsing the edited row first also keeps the file's old formula there
+     * from registering its edges after the new ones.
+     */
+    private void loadReachable(long id, CellContent content) {
+        if (storage.isFullyLoaded()) return;
+        storage.getCell(CellId.row(id) - 1, CellId.col(id) - 1);
+        if (!(content instanceof FormulaContent formula)) return;
+        int[] stack = formula.references().clone();
+        int top = stack.length;
+        CellIdSet seen = new CellIdSet(16);
+        while (top > 0) {
+            top -= 4;
+            int r1 = stack[top];
+            int c1 = stack[top + 1];
+            int r2 = Math.min(stack[top + 2], storage.getRowCount());
+            int c2 = Math.min(stack[top + 3], storage.getColCount());
+            for (int r = r1; r <= r2; r++) {
+                for (int c = c1; c <= c2; c++) {
+                    if (!(storage.getCell(r - 1, c - 1).getContent() instanceof FormulaContent fc)
+                            || !seen.add(CellId.of(r, c))) continue;
+                    int[] refs = fc.references();
+                    if (top + refs.length > stack.length)
+                        stack = Arrays.copyOf(stack, Math.max(stack.length * 2, top + refs.length));
+                    System.arraycopy(refs, 0, stack, top, refs.length);
+                    top += refs.length;
                 }
             }
         }
+    }
+
+    // Single cells become explicit edges; ranges stay rectangles for the graph's spatial index
+    private DependencyGraph.Precedents collectDependencies(FormulaContent formula) {
+        int[] refs = formula.references();
+        CellIdSet cells = new CellIdSet(refs.length / 4);
+        int[] ranges = DependencyGraph.NO_RANGES;
+        int n = 0;
+
+        for (int i = 0; i < refs.length; i += 4) {
+            if (refs[i] == refs[i + 2] && refs[i + 1] == refs[i + 3]) {
+                cells.add(CellId.of(refs[i], refs[i + 1]));
+                continue;
+            }
+            if (n == ranges.length) ranges = Arrays.copyOf(ranges, n + 4);
+            System.arraycopy(refs, i, ranges, n, 4);
+            n += 4;
+        }
 
-        return expanded;
+        return new DependencyGraph.Precedents(cells.toArray(), ranges);
     }
 
 
@@ -214,7 +727,40 @@ class Spreadsheet {
     // internal helpers for serializer
     int getInternalRowCount() { return storage.getRowCount(); }
     int getInternalColCount() { return storage.getColCount(); }
+    boolean isGrowable() { return storage.isGrowable(); }
     Cell getCellInternal(int r, int c) { return storage.getCell(r, c); }
-    void setCellInternal(int r, int c, Cell cell) { storage.setCell(r, c, cell); }
+    // Under one read lock, so a save sees a single committed state
+    void forEachCellInternal(SpreadsheetStorage.CellVisitor visitor) {
+        long stamp = lockRead();
+        try {
+            storage.forEachCell(visitor);
+        } finally {
+            unlockRead(stamp);
+        }
+    }
+    void setCellInternal(int r, int c, Cell cell) { store(r, c, cell); }
+    // A snapshot has no graph of its own; its edges follow from its formulas, as the live sheet's did
+    DependencyGraph.Precedents precedentsOf(int row, int col) {
+        if (!readOnly) return graph.precedentsOf(CellId.of(row, col));
+        return storage.getCell(row - 1, col - 1).getContent() instanceof FormulaContent fc
+                ? collectDependencies(fc) : DependencyGraph.NONE;
+    }
+
+    // Formula read in by lazily loading storage; only its edges are needed, its value is computed on demand
+    void registerLoadedFormula(int row0, int col0, Cell cell) {
+        graph.setPrecedents(CellId.of(row0 + 1, col0 + 1), collectDependencies((FormulaContent) cell.getContent()));
+    }
+
+    // Puts back a cell together with dependency edges that were saved with it; no cycle check, no invalidation
+    void restoreCell(int row, int col, CellContent content, DependencyGraph.Precedents deps) {
+        graph.setPrecedents(CellId.of(row, col), deps);
+        store(row - 1, col - 1, new Cell(content));
+    }
+
+    // Every cell write goes through here so the aggregate index stays current
+    private void store(int r, int c, Cell cell) {
+        storage.setCell(r, c, cell);
+        aggregates.update(r, c, cell == null ? new EmptyContent() : cell.getContent());
+    }
 }
 
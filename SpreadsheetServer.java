@@ -0,0 +1,284 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Headless HTTP front end for one shared sheet, on the JDK's built-in server.
+ * Requests run one per virtual thread where the JDK has them, otherwise on a
+ * cached pool. The sheet is versioned and concurrent, so reads never wait for
+ * each other and a region is read from one pinned snapshot. Bodies and
+ * answers are UTF-8 text; values are written the way {@code getTextValue} renders
+ * them, writes answer "OK" and failures "ERROR: " and the message.
+ *
+ * <pre>
+ * GET  /cell?at=A1              value of one cell
+ * PUT  /cell?at=A1              body is the raw content, as typed at the prompt
+ * GET  /region?from=A1&amp;to=C3    one line per row, values separated by tabs
+ * POST /batch                   lines "set A1 raw" and "get A1"; all sets commit as one
+ *                               transaction, then the gets are answered one per line
+ * POST /new?rows=100&amp;cols=26
+ * POST /load?path=f.s2v         paths resolve inside the server's root directory;
+ * POST /save?path=f.s2v         *.s2vb is the binary snapshot format
+ * GET  /stats                   request count and latency percentiles per route, as JSON
+ * </pre>
+ */
+final class SpreadsheetServer {
+
+    private final HttpServer http;
+    private final ExecutorService executor;
+    private final Path root;
+    private final Map<String, Histogram> latencies = new LinkedHashMap<>();
+    // Replaced as a whole, so a request never pairs one sheet with another's flag
+    private volatile Current current;
+
+    private static final class Current {
+        final Spreadsheet sheet;
+        // Only sheets built here are versioned; loaded snapshots are read cell by cell
+        final boolean versioned;
+
+        Current(Spreadsheet sheet, boolean versioned) {
+            this.sheet = sheet;
+            this.versioned = versioned;
+        }
+
+        // A pinned version where there is one, so a multi-cell read sees a single state
+        Spreadsheet stable() {
+            return versioned ? sheet.snapshot() : sheet;
+        }
+    }
+
+    private SpreadsheetServer(int port, Path root) throws IOException {
+        this.root = root.toAbsolutePath().normalize();
+        this.http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.executor = requestExecutor();
+        http.setExecutor(executor);
+        replace(Spreadsheet.versioned(100, 26), true);
+
+        route("/cell", this::cell);
+        route("/region", this::region);
+        route("/batch", this::batch);
+        route("/new", this::create);
+        route("/load", this::load);
+        route("/save", this::save);
+        route("/stats", this::stats);
+    }
+
+    /** Starts serving on the loopback interface; {@code port} 0 picks a free one. */
+    static SpreadsheetServer start(int port, Path root) throws IOException {
+        SpreadsheetServer server = new SpreadsheetServer(port, root);
+        server.http.start();
+        return server;
+    }
+
+    int port() {
+        return http.getAddress().getPort();
+    }
+
+    void stop() {
+        http.stop(0);
+        executor.shutdown();
+    }
+
+    // Virtual threads (JDK 21+) looked up reflectively so the server still runs on older JDKs
+    private static ExecutorService requestExecutor() {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    // ---------- Routes ----------
+
+    @FunctionalInterface
+    private interface Handler {
+        String handle(HttpExchange ex, Map<String, String> query) throws IOException;
+    }
+
+    private void route(String path, Handler handler) {
+        Histogram latency = new Histogram();
+        latencies.put(path, latency);
+        http.createContext(path, ex -> {
+            long start = System.nanoTime();
+            int status = 200;
+            String body;
+            try {
+                body = handler.handle(ex, query(ex));
+            } catch (IllegalArgumentException | IllegalStateException | IndexOutOfBoundsException err) {
+                status = 400;
+                body = "ERROR: " + err.getMessage() + "\n";
+            } catch (IOException | RuntimeException err) {
+                status = 500;
+                body = "ERROR: " + err.getMessage() + "\n";
+            }
+            byte[] out = body.getBytes(StandardCharsets.UTF_8);
+            ex.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            ex.sendResponseHeaders(status, out.length);
+            try (OutputStream os = ex.getResponseBody()) {
+                os.write(out);
+            }
+            latency.record(System.nanoTime() - start);
+        });
+    }
+
+    private String cell(HttpExchange ex, Map<String, String> q) throws IOException {
+        int[] rc = coord(q, "at");
+        Spreadsheet s = current.sheet;
+        switch (ex.getRequestMethod()) {
+            case "GET":
+                return value(s, rc[0], rc[1]) + "\n";
+            case "PUT":
+                String raw = new String(ex.getRequestBody().readAllBytes(), StandardCharsets.UTF_8).strip();
+                s.setCell(rc[0], rc[1], CellContentFactory.fromRaw(raw, rc[0], rc[1]));
+                return "OK\n";
+            default:
+                throw new IllegalArgumentException("Use GET or PUT on /cell");
+        }
+    }
+
+    private String region(HttpExchange ex, Map<String, String> q) {
+        int[] a = coord(q, "from");
+        int[] b = coord(q, "to");
+        Spreadsheet s = current.stable();
+        StringBuilder out = new StringBuilder();
+        for (int r = Math.min(a[0], b[0]); r <= Math.max(a[0], b[0]); r++) {
+            for (int c = Math.min(a[1], b[1]); c <= Math.max(a[1], b[1]); c++) {
+                if (c > Math.min(a[1], b[1])) out.append('\t');
+                out.append(value(s, r, c));
+            }
+            out.append('\n');
+        }
+        return out.toString();
+    }
+
+    private String batch(HttpExchange ex, Map<String, String> q) throws IOException {
+        String[] lines = new String(ex.getRequestBody().readAllBytes(), StandardCharsets.UTF_8).split("\r?\n");
+        Spreadsheet s = current.sheet;
+        Spreadsheet.Transaction tx = s.begin();
+        boolean sets = false;
+        for (String line : lines) {
+            String[] parts = line.strip().split("\\s+", 3);
+            if (parts[0].isEmpty() || parts[0].equals("get")) continue;
+            if (!parts[0].equals("set") || parts.length < 2)
+                throw new IllegalArgumentException("Unknown batch line: " + line);
+            int[] rc = Spreadsheet.coordToIndices(parts[1].toUpperCase());
+            String raw = parts.length > 2 ? parts[2] : "";
+            if (raw.startsWith("=")) tx.setFormula(rc[0], rc[1], raw);
+            else tx.set(rc[0], rc[1], CellContentFactory.fromRaw(raw, rc[0], rc[1]));
+            sets = true;
+        }
+        if (sets) tx.commit();
+        else tx.rollback();
+
+        StringBuilder out = new StringBuilder();
+        for (String line : lines) {
+            String[] parts = line.strip().split("\\s+");
+            if (!parts[0].equals("get")) continue;
+            if (parts.length < 2) throw new IllegalArgumentException("Unknown batch line: " + line);
+            int[] rc = Spreadsheet.coordToIndices(parts[1].toUpperCase());
+            out.append(value(s, rc[0], rc[1])).append('\n');
+        }
+        return out.length() == 0 ? "OK\n" : out.toString();
+    }
+
+    private String create(HttpExchange ex, Map<String, String> q) {
+        int rows = Integer.parseInt(q.getOrDefault("rows", "100"));
+        int cols = Integer.parseInt(q.getOrDefault("cols", "26"));
+        replace(Spreadsheet.versioned(rows, cols), true);
+        return "OK\n";
+    }
+
+    private String load(HttpExchange ex, Map<String, String> q) throws IOException {
+        Path p = file(q);
+        if (isSnapshot(p)) {
+            replace(new SnapshotSerializer().load(p), false);
+        } else {
+            Spreadsheet s = Spreadsheet.versioned(1, 1);
+            new S2VSerializer().load(s, p);
+            replace(s, true);
+        }
+        return "OK\n";
+    }
+
+    private String save(HttpExchange ex, Map<String, String> q) throws IOException {
+        Path p = file(q);
+        // A snapshot lets edits go on while the file is written
+        Spreadsheet s = current.stable();
+        if (isSnapshot(p)) new SnapshotSerializer().save(s, p);
+        else new S2VSerializer().save(s, p);
+        return "OK\n";
+    }
+
+    private String stats(HttpExchange ex, Map<String, String> q) {
+        StringBuilder out = new StringBuilder("{");
+        for (Map.Entry<String, Histogram> e : latencies.entrySet()) {
+            Histogram l = e.getValue();
+            if (out.length() > 1) out.append(',');
+            out.append("\n  \"").append(e.getKey()).append("\": {\"count\": ").append(l.count())
+                    .append(", \"p50_us\": ").append(l.percentile(0.50) / 1000)
+                    .append(", \"p90_us\": ").append(l.percentile(0.90) / 1000)
+                    .append(", \"p99_us\": ").append(l.percentile(0.99) / 1000)
+                    .append(", \"p999_us\": ").append(l.percentile(0.999) / 1000)
+                    .append(", \"max_us\": ").append(l.percentile(1.0) / 1000).append('}');
+        }
+        return out.append("\n}\n").toString();
+    }
+
+    // ---------- Helpers ----------
+
+    private void replace(Spreadsheet s, boolean isVersioned) {
+        current = new Current(s.concurrent(), isVersioned);
+    }
+
+    private static String value(Spreadsheet s, int row, int col) {
+        CellContent c = s.getCell(row, col).getContent();
+        return c.isEmpty() ? "" : c.getTextValue(s);
+    }
+
+    private static int[] coord(Map<String, String> q, String name) {
+        String v = q.get(name);
+        if (v == null) throw new IllegalArgumentException("Missing parameter " + name);
+        int[] rc = Spreadsheet.coordToIndices(v.toUpperCase());
+        if (rc[0] < 1 || rc[1] < 1) throw new IllegalArgumentException("Bad cell " + v);
+        return rc;
+    }
+
+    private Path file(Map<String, String> q) {
+        String v = q.get("path");
+        if (v == null) throw new IllegalArgumentException("Missing parameter path");
+        Path p = root.resolve(v).normalize();
+        if (!p.startsWith(root)) throw new IllegalArgumentException("Path outside the server root: " + v);
+        return p;
+    }
+
+    private static boolean isSnapshot(Path p) {
+        return p.getFileName().toString().toLowerCase().endsWith(".s2vb");
+    }
+
+    private static Map<String, String> query(HttpExchange ex) {
+        Map<String, String> q = new HashMap<>();
+        String raw = ex.getRequestURI().getRawQuery();
+        if (raw == null) return q;
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq <= 0) continue;
+            q.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                    URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+        return q;
+    }
+}
@@ -12,5 +12,52 @@ public interface SpreadsheetStorage {
     Iterable<Cell[]> rowsIterable();
 
 
+    /**
+     * Visits stored cells in row-major order. Implementations may skip regions
+     * they know to be empty, so visitors must not rely on seeing every cell.
+     */
+    default void forEachCell(CellVisitor visitor) {
+        int rows = getRowCount();
+        int cols = getColCount();
+        for (int r = 0; r < rows; r++)
+            for (int c = 0; c < cols; c++)
+                visitor.visit(r, c, getCell(r, c));
+    }
+
+
+    /**
+     * Copies the values of up to {@code n} cells from (row0, col0) rightwards
+     * into {@code out}, starting at index {@code at}. Empty cells read as 0.
+     * Stops before the first cell that is neither numeric nor empty and
+     * returns the number of values copied.
+     */
+    default int readNumbers(int row0, int col0, int n, double[] out, int at) {
+        for (int i = 0; i < n; i++) {
+            CellContent cc = getCell(row0, col0 + i).getContent();
+            if (cc instanceof NumericContent) out[at + i] = cc.getNumericValue(null);
+            else if (cc instanceof EmptyContent) out[at + i] = 0;
+            else return i;
+        }
+        return n;
+    }
+
+
+    /** True if writes past the current extent grow the grid instead of failing. */
+    default boolean isGrowable() { return false; }
+
+
+    /**
+     * False while some cells are still only in a backing file. Whole-column
+     * indexes are not built then, as building them would read every row.
+     */
+    default boolean isFullyLoaded() { return true; }
+
+
     default String storageType() { return this.getClass().getSimpleName(); }
+
+
+    @FunctionalInterface
+    interface CellVisitor {
+        void visit(int row0, int col0, Cell cell);
+    }
 }
@@ -0,0 +1,188 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Sparse storage that splits the grid into fixed-size tiles. A tile is only
+ * allocated the first time a non-empty cell is written into it; every other
+ * position reads as one shared empty cell. Writing past the current extent
+ * grows the sheet instead of failing.
+ */
+public class TiledStorage implements SpreadsheetStorage {
+
+    static final int TILE_ROW_BITS = 6;
+    static final int TILE_COL_BITS = 4;
+    static final int TILE_ROWS = 1 << TILE_ROW_BITS;
+    static final int TILE_COLS = 1 << TILE_COL_BITS;
+    private static final int ROW_MASK = TILE_ROWS - 1;
+    private static final int COL_MASK = TILE_COLS - 1;
+
+    // Shared by every unallocated position, so it rejects setContent
+    static final Cell EMPTY = Cell.readOnly(new EmptyContent());
+
+    // tiles[tileRow][tileCol] is a row-major block of TILE_ROWS * TILE_COLS cells, or null.
+    private Cell[][][] tiles;
+    private int rows;
+    private int cols;
+
+    public TiledStorage(int rows, int cols) {
+        if (rows <= 0 || cols <= 0) throw new IllegalArgumentException("rows/cols must be positive");
+        this.rows = rows;
+        this.cols = cols;
+        this.tiles = new Cell[tileIndex(rows - 1, TILE_ROW_BITS) + 1][][];
+    }
+
+    @Override public int getRowCount() { return rows; }
+    @Override public int getColCount() { return cols; }
+    @Override public boolean isGrowable() { return true; }
+
+    @Override
+    public Cell getCell(int row0, int col0) {
+        checkNonNegative(row0, col0);
+        int tr = row0 >>> TILE_ROW_BITS;
+        if (tr >= tiles.length || tiles[tr] == null) return EMPTY;
+        int tc = col0 >>> TILE_COL_BITS;
+        if (tc >= tiles[tr].length) return EMPTY;
+        Cell[] tile = tiles[tr][tc];
+        if (tile == null) return EMPTY;
+        Cell cell = tile[offset(row0, col0)];
+        return cell == null ? EMPTY : cell;
+    }
+
+    // Walks the row one tile at a time; a missing tile is a run of zeros
+    @Override
+    public int readNumbers(int row0, int col0, int n, double[] out, int at) {
+        checkNonNegative(row0, col0);
+        int tr = row0 >>> TILE_ROW_BITS;
+        Cell[][] band = tr < tiles.length ? tiles[tr] : null;
+        int done = 0;
+        while (done < n) {
+            int c = col0 + done;
+            int tc = c >>> TILE_COL_BITS;
+            int len = Math.min(n - done, TILE_COLS - (c & COL_MASK));
+            Cell[] tile = band != null && tc < band.length ? band[tc] : null;
+            if (tile == null) {
+                Arrays.fill(out, at + done, at + done + len, 0);
+                done += len;
+                continue;
+            }
+            for (int i = 0, base = offset(row0, c); i < len; i++, done++) {
+                Cell cell = tile[base + i];
+                if (cell == null) {
+                    out[at + done] = 0;
+                    continue;
+                }
+                CellContent cc = cell.getContent();
+                if (cc instanceof NumericContent) out[at + done] = cc.getNumericValue(null);
+                else if (cc instanceof EmptyContent) out[at + done] = 0;
+                else return done;
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public void setCell(int row0, int col0, Cell cell) {
+        checkNonNegative(row0, col0);
+        if (row0 >= rows) rows = row0 + 1;
+        if (col0 >= cols) cols = col0 + 1;
+
+        boolean empty = cell == null || cell.getContent() instanceof EmptyContent;
+        Cell[] tile = tile(row0, col0, !empty);
+        if (tile != null) tile[offset(row0, col0)] = empty ? null : cell;
+    }
+
+    @Override
+    public Iterable<Cell[]> rowsIterable() {
+        return () -> new Iterator<>() {
+            private int next = advance(0);
+
+            private int advance(int r) {
+                while (r < rows) {
+                    int tr = r >>> TILE_ROW_BITS;
+                    if (tr < tiles.length && tiles[tr] != null) return r;
+                    r = (tr + 1) << TILE_ROW_BITS;
+                }
+                return rows;
+            }
+
+            @Override public boolean hasNext() { return next < rows; }
+
+            @Override
+            public Cell[] next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                Cell[] row = new Cell[cols];
+                for (int c = 0; c < cols; c++) row[c] = getCell(next, c);
+                next = advance(next + 1);
+                return row;
+            }
+        };
+    }
+
+    @Override
+    public void forEachCell(CellVisitor visitor) {
+        for (int tr = 0; tr < tiles.length; tr++) {
+            Cell[][] band = tiles[tr];
+            if (band == null) continue;
+            int rFrom = tr << TILE_ROW_BITS;
+            int rTo = Math.min(rows, rFrom + TILE_ROWS);
+            for (int r = rFrom; r < rTo; r++) {
+                for (int tc = 0; tc < band.length; tc++) {
+                    Cell[] tile = band[tc];
+                    if (tile == null) continue;
+                    int base = (r & ROW_MASK) << TILE_COL_BITS;
+                    int cFrom = tc << TILE_COL_BITS;
+                    for (int i = 0; i < TILE_COLS; i++) {
+                        Cell cell = tile[base + i];
+                        if (cell != null) visitor.visit(r, cFrom + i, cell);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Number of tiles currently backed by memory. */
+    int allocatedTileCount() {
+        int n = 0;
+        for (Cell[][] band : tiles) {
+            if (band == null) continue;
+            for (Cell[] tile : band) if (tile != null) n++;
+        }
+        return n;
+    }
+
+    private Cell[] tile(int row0, int col0, boolean allocate) {
+        int tr = row0 >>> TILE_ROW_BITS;
+        int tc = col0 >>> TILE_COL_BITS;
+        if (tr >= tiles.length) {
+            if (!allocate) return null;
+            tiles = Arrays.copyOf(tiles, Math.max(tr + 1, tiles.length * 2));
+        }
+        Cell[][] band = tiles[tr];
+        if (band == null || tc >= band.length) {
+            if (!allocate) return null;
+            int width = tileIndex(cols - 1, TILE_COL_BITS) + 1;
+            band = band == null ? new Cell[width][] : Arrays.copyOf(band, Math.max(width, band.length * 2));
+            tiles[tr] = band;
+        }
+        Cell[] tile = band[tc];
+        if (tile == null && allocate) {
+            tile = new Cell[TILE_ROWS * TILE_COLS];
+            band[tc] = tile;
+        }
+        return tile;
+    }
+
+    private static int tileIndex(int index0, int bits) {
+        return index0 >>> bits;
+    }
+
+    private static int offset(int row0, int col0) {
+        return ((row0 & ROW_MASK) << TILE_COL_BITS) | (col0 & COL_MASK);
+    }
+
+    private static void checkNonNegative(int r, int c) {
+        if (r < 0 || c < 0)
+            throw new IndexOutOfBoundsException("Index out of bounds: " + r + "," + c);
+    }
+}
@@ -0,0 +1,240 @@
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Topological order of the formula cells of a {@link DependencyGraph}, kept
+ * up to date as edges are added (Marchetti-Spaccamela et al.: a forward search
+ * from the edge's target, bounded by the source's position, then one shift of
+ * the affected window). A cell is placed before every formula that reads it.
+ * New cells enter at the back when nothing reads them yet, since every input
+ * is already ahead of them, and at the front otherwise.
+ */
+final class TopoOrder {
+
+    private static final int MIN_CAPACITY = 16;
+
+    // at[head..tail) holds the order; 0 marks a removed cell
+    private long[] at = new long[MIN_CAPACITY];
+    private int head = MIN_CAPACITY / 2;
+    private int tail = MIN_CAPACITY / 2;
+    private int holes;
+
+    // cell id -> index into at, open addressing as in CellIdMap
+    private long[] keys = new long[MIN_CAPACITY];
+    private int[] slots = new int[MIN_CAPACITY];
+    private int size;
+
+    // rows of ordered cells per column, for finding the formulas inside a range
+    private BitSet[] columns = new BitSet[0];
+
+    int size() { return size; }
+
+    boolean contains(long id) {
+        return position(id) >= 0;
+    }
+
+    /** Index of {@code id} in the order, or -1. Only relative values are meaningful. */
+    int position(long id) {
+        long[] k = keys;
+        int mask = k.length - 1;
+        for (int i = CellIdSet.slot(id, mask); ; i = (i + 1) & mask) {
+            if (k[i] == id) return slots[i];
+            if (k[i] == 0) return -1;
+        }
+    }
+
+    void addFirst(long id) {
+        if (head == 0) recenter(Math.max(MIN_CAPACITY, 2 * (tail - head)));
+        at[--head] = id;
+        put(id, head);
+        index(id);
+    }
+
+    void addLast(long id) {
+        if (tail == at.length) recenter(Math.max(MIN_CAPACITY, 2 * (tail - head)));
+        at[tail] = id;
+        put(id, tail++);
+        index(id);
+    }
+
+    void remove(long id) {
+        int p = position(id);
+        if (p < 0) return;
+        at[p] = 0;
+        holes++;
+        delete(id);
+        columns[CellId.col(id)].clear(CellId.row(id));
+        if (holes > 64 && holes * 2 > tail - head) recenter(Math.max(MIN_CAPACITY, 2 * size));
+    }
+
+    /** Highest position among the ordered cells {@code deps} reads, or -1 if it reads none. */
+    int lastPositionIn(DependencyGraph.Precedents deps) {
+        int max = -1;
+        for (long id : deps.cells) max = Math.max(max, position(id));
+        int[] r = deps.ranges;
+        for (int i = 0; i < r.length; i += 4) {
+            for (int c = r[i + 1]; c <= r[i + 3] && c < columns.length; c++) {
+                BitSet rows = columns[c];
+                if (rows == null) continue;
+                for (int row = rows.nextSetBit(r[i]); row >= 0 && row <= r[i + 2]; row = rows.nextSetBit(row + 1)) {
+                    max = Math.max(max, position(CellId.of(row, c)));
+                }
+            }
+        }
+        return max;
+    }
+
+    /**
+     * {@code from} and every cell reachable from it through dependents without
+     * passing a position beyond {@code last}; the region a new edge into
+     * {@code from} can disturb.
+     */
+    long[] reach(long from, int last, DependencyGraph graph) {
+        CellIdSet seen = new CellIdSet();
+        long[] found = new long[8];
+        int n = 0;
+        found[n++] = from;
+        seen.add(from);
+        CellIdSet dependents = new CellIdSet();
+        for (int i = 0; i < n; i++) {
+            dependents.clear();
+            graph.forEachDependent(found[i], dependents::add);
+            for (long d : dependents.toArray()) {
+                int p = position(d);
+                if (p < 0 || p > last || !seen.add(d)) continue;
+                if (n == found.length) found = Arrays.copyOf(found, n * 2);
+                found[n++] = d;
+            }
+        }
+        return Arrays.copyOf(found, n);
+    }
+
+    /**
+     * Moves {@code region} (found by {@link #reach}) behind position {@code last},
+     * keeping the relative order inside and outside it.
+     */
+    void moveBehind(long[] region, int last) {
+        int first = Integer.MAX_VALUE;
+        CellIdSet moving = new CellIdSet(region.length);
+        for (long id : region) {
+            moving.add(id);
+            first = Math.min(first, position(id));
+        }
+        // (position, index) packed so one primitive sort puts the region in its current order
+        long[] keyed = new long[region.length];
+        for (int i = 0; i < region.length; i++) keyed[i] = (long) position(region[i]) << 32 | i;
+        Arrays.sort(keyed);
+        long[] sorted = new long[region.length];
+        for (int i = 0; i < keyed.length; i++) sorted[i] = region[(int) keyed[i]];
+
+        int w = first;
+        for (int p = first; p <= last; p++) {
+            long id = at[p];
+            if (id == 0 || moving.contains(id)) continue;
+            at[w] = id;
+            put(id, w++);
+        }
+        for (long id : sorted) {
+            at[w] = id;
+            put(id, w++);
+        }
+        for (; w <= last; w++) at[w] = 0;
+    }
+
+    /** Cells in order, sources first. */
+    long[] toArray() {
+        long[] out = new long[size];
+        int n = 0;
+        for (int p = head; p < tail; p++) if (at[p] != 0) out[n++] = at[p];
+        return out;
+    }
+
+    /** Replaces the whole order with {@code ids}, given sources first. */
+    void reset(long[] ids) {
+        at = new long[Math.max(MIN_CAPACITY, 2 * ids.length)];
+        head = at.length;
+        tail = at.length;
+        holes = 0;
+        keys = new long[MIN_CAPACITY];
+        slots = new int[MIN_CAPACITY];
+        size = 0;
+        columns = new BitSet[0];
+        for (int i = ids.length - 1; i >= 0; i--) addFirst(ids[i]);
+    }
+
+    private void index(long id) {
+        int col = CellId.col(id);
+        if (col >= columns.length) columns = Arrays.copyOf(columns, Math.max(col + 1, columns.length * 2));
+        if (columns[col] == null) columns[col] = new BitSet();
+        columns[col].set(CellId.row(id));
+    }
+
+    // Copies the live cells into a fresh array with room at the front, dropping holes
+    private void recenter(int capacity) {
+        long[] fresh = new long[capacity + size];
+        int h = capacity / 2;
+        int w = h;
+        for (int p = head; p < tail; p++) {
+            long id = at[p];
+            if (id == 0) continue;
+            fresh[w] = id;
+            put(id, w++);
+        }
+        at = fresh;
+        head = h;
+        tail = w;
+        holes = 0;
+    }
+
+    private void put(long id, int slot) {
+        int mask = keys.length - 1;
+        int i = CellIdSet.slot(id, mask);
+        while (keys[i] != 0) {
+            if (keys[i] == id) {
+                slots[i] = slot;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = id;
+        slots[i] = slot;
+        if (++size * 4 > keys.length * 3) rehash(keys.length << 1);
+    }
+
+    private void delete(long id) {
+        long[] k = keys;
+        int[] v = slots;
+        int mask = k.length - 1;
+        int i = CellIdSet.slot(id, mask);
+        while (k[i] != id) {
+            if (k[i] == 0) return;
+            i = (i + 1) & mask;
+        }
+        int gap = i;
+        for (int j = (gap + 1) & mask; k[j] != 0; j = (j + 1) & mask) {
+            int home = CellIdSet.slot(k[j], mask);
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                k[gap] = k[j];
+                v[gap] = v[j];
+                gap = j;
+            }
+        }
+        k[gap] = 0;
+        size--;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldSlots = slots;
+        keys = new long[capacity];
+        slots = new int[capacity];
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] == 0) continue;
+            int i = CellIdSet.slot(oldKeys[j], mask);
+            while (keys[i] != 0) i = (i + 1) & mask;
+            keys[i] = oldKeys[j];
+            slots[i] = oldSlots[j];
+        }
+    }
+}
@@ -0,0 +1,55 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link RangeKernel#fold} on the incubating Vector API: one lane per double
+ * of the CPU's preferred vector width, each with its own compensated sum,
+ * minimum and maximum, the same recurrences as the scalar lanes. Only loaded
+ * when {@link RangeKernel#VECTOR} found the module.
+ */
+final class VectorKernel {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    private VectorKernel() {}
+
+    static void fold(double[] v, int n, Aggregate into) {
+        if (n == 0) return;
+        DoubleVector s = DoubleVector.zero(SPECIES);
+        DoubleVector e = s;
+        DoubleVector lo = DoubleVector.broadcast(SPECIES, Double.POSITIVE_INFINITY);
+        DoubleVector hi = DoubleVector.broadcast(SPECIES, Double.NEGATIVE_INFINITY);
+        int bound = SPECIES.loopBound(n);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector a = DoubleVector.fromArray(SPECIES, v, i);
+            DoubleVector y = a.sub(e);
+            DoubleVector t = s.add(y);
+            e = t.sub(s).sub(y);
+            s = t;
+            // Compare and blend rather than min/max: a tie keeps the earlier value and NaN is left to rescan
+            lo = lo.blend(a, a.compare(VectorOperators.LT, lo));
+            hi = hi.blend(a, a.compare(VectorOperators.GT, hi));
+        }
+        double[] lanes = s.sub(e).toArray();
+        double tail = 0;
+        double err = 0;
+        double min = lo.reduceLanes(VectorOperators.MIN);
+        double max = hi.reduceLanes(VectorOperators.MAX);
+        for (; i < n; i++) {
+            double a = v[i];
+            double y = a - err;
+            double t = tail + y;
+            err = (t - tail) - y;
+            tail = t;
+            min = a < min ? a : min;
+            max = a > max ? a : max;
+        }
+        // Lane totals are added in a fixed order, so a run's sum does not depend on the reduction
+        double sum = tail - err;
+        for (double lane : lanes) sum += lane;
+        if (sum != sum) RangeKernel.rescan(v, n, into);
+        else into.addRun(sum, min, max, n);
+    }
+}
@@ -0,0 +1,232 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Tiled storage whose state can be frozen into read-only snapshots. A snapshot
+ * shares every tile with the live grid; the first write to a tile after a
+ * snapshot copies that tile and the arrays leading to it, so the snapshot
+ * never changes and only tiles edited since cost memory twice. A version
+ * nobody references any more is left to the garbage collector.
+ */
+final class VersionedStorage implements SpreadsheetStorage {
+
+    private static final int ROW_BITS = TiledStorage.TILE_ROW_BITS;
+    private static final int COL_BITS = TiledStorage.TILE_COL_BITS;
+    private static final int ROW_MASK = TiledStorage.TILE_ROWS - 1;
+    private static final int COL_MASK = TiledStorage.TILE_COLS - 1;
+
+    // Same layout as TiledStorage: tiles[tileRow][tileCol] is a row-major block, or null
+    private Cell[][][] tiles;
+    private int rows;
+    private int cols;
+
+    // Arrays copied since the last snapshot, which may therefore be written in place
+    private boolean ownTop = true;
+    private boolean[] ownBand;
+    private boolean[][] ownTile;
+    // Handed out again until the next write
+    private Snapshot latest;
+
+    VersionedStorage(int rows, int cols) {
+        if (rows <= 0 || cols <= 0) throw new IllegalArgumentException("rows/cols must be positive");
+        this.rows = rows;
+        this.cols = cols;
+        this.tiles = new Cell[((rows - 1) >>> ROW_BITS) + 1][][];
+        this.ownBand = new boolean[tiles.length];
+        this.ownTile = new boolean[tiles.length][];
+    }
+
+    @Override public int getRowCount() { return rows; }
+    @Override public int getColCount() { return cols; }
+    @Override public boolean isGrowable() { return true; }
+
+    @Override
+    public Cell getCell(int row0, int col0) {
+        return lookup(tiles, row0, col0);
+    }
+
+    @Override
+    public void setCell(int row0, int col0, Cell cell) {
+        checkNonNegative(row0, col0);
+        if (row0 >= rows) rows = row0 + 1;
+        if (col0 >= cols) cols = col0 + 1;
+        latest = null;
+
+        boolean empty = cell == null || cell.getContent() instanceof EmptyContent;
+        Cell[] tile = writableTile(row0 >>> ROW_BITS, col0 >>> COL_BITS, !empty);
+        if (tile != null) tile[offset(row0, col0)] = empty ? null : cell;
+    }
+
+    @Override
+    public Iterable<Cell[]> rowsIterable() {
+        return rows(tiles, rows, cols);
+    }
+
+    @Override
+    public void forEachCell(CellVisitor visitor) {
+        visit(tiles, rows, visitor);
+    }
+
+    /** The current contents, as storage that later writes never change. */
+    Snapshot snapshot() {
+        if (latest == null) {
+            latest = new Snapshot(tiles, rows, cols);
+            ownTop = false;
+            ownBand = new boolean[tiles.length];
+            ownTile = new boolean[tiles.length][];
+        }
+        return latest;
+    }
+
+    /** Read-only view of one version. */
+    static final class Snapshot implements SpreadsheetStorage {
+        private final Cell[][][] tiles;
+        private final int rows;
+        private final int cols;
+        // The sheet built over this version, shared by everyone who pins it
+        Spreadsheet sheet;
+
+        private Snapshot(Cell[][][] tiles, int rows, int cols) {
+            this.tiles = tiles;
+            this.rows = rows;
+            this.cols = cols;
+        }
+
+        @Override public int getRowCount() { return rows; }
+        @Override public int getColCount() { return cols; }
+
+        @Override
+        public Cell getCell(int row0, int col0) {
+            return lookup(tiles, row0, col0);
+        }
+
+        @Override
+        public void setCell(int row0, int col0, Cell cell) {
+            throw new IllegalStateException("Snapshots are read-only");
+        }
+
+        @Override
+        public Iterable<Cell[]> rowsIterable() {
+            return rows(tiles, rows, cols);
+        }
+
+        @Override
+        public void forEachCell(CellVisitor visitor) {
+            visit(tiles, rows, visitor);
+        }
+    }
+
+    // Copies whatever a snapshot still shares on the way down to the tile
+    private Cell[] writableTile(int tr, int tc, boolean allocate) {
+        if (!allocate) {
+            if (tr >= tiles.length || tiles[tr] == null || tc >= tiles[tr].length || tiles[tr][tc] == null) return null;
+        }
+        if (tr >= tiles.length) {
+            int n = Math.max(tr + 1, tiles.length * 2);
+            tiles = Arrays.copyOf(tiles, n);
+            ownBand = Arrays.copyOf(ownBand, n);
+            ownTile = Arrays.copyOf(ownTile, n);
+            ownTop = true;
+        } else if (!ownTop) {
+            tiles = tiles.clone();
+            ownTop = true;
+        }
+
+        Cell[][] band = tiles[tr];
+        if (band == null || tc >= band.length) {
+            int width = Math.max(((cols - 1) >>> COL_BITS) + 1, tc + 1);
+            band = band == null ? new Cell[width][] : Arrays.copyOf(band, Math.max(width, band.length * 2));
+            tiles[tr] = band;
+            ownBand[tr] = true;
+        } else if (!ownBand[tr]) {
+            band = band.clone();
+            tiles[tr] = band;
+            ownBand[tr] = true;
+        }
+        boolean[] owned = ownTile[tr];
+        if (owned == null || owned.length < band.length) {
+            owned = owned == null ? new boolean[band.length] : Arrays.copyOf(owned, band.length);
+            ownTile[tr] = owned;
+        }
+
+        Cell[] tile = band[tc];
+        if (tile == null) {
+            tile = new Cell[TiledStorage.TILE_ROWS * TiledStorage.TILE_COLS];
+        } else if (!owned[tc]) {
+            tile = tile.clone();
+        } else {
+            return tile;
+        }
+        band[tc] = tile;
+        owned[tc] = true;
+        return tile;
+    }
+
+    private static Cell lookup(Cell[][][] tiles, int row0, int col0) {
+        checkNonNegative(row0, col0);
+        int tr = row0 >>> ROW_BITS;
+        if (tr >= tiles.length || tiles[tr] == null) return TiledStorage.EMPTY;
+        Cell[][] band = tiles[tr];
+        int tc = col0 >>> COL_BITS;
+        if (tc >= band.length || band[tc] == null) return TiledStorage.EMPTY;
+        Cell cell = band[tc][offset(row0, col0)];
+        return cell == null ? TiledStorage.EMPTY : cell;
+    }
+
+    private static void visit(Cell[][][] tiles, int rows, CellVisitor visitor) {
+        for (int tr = 0; tr < tiles.length; tr++) {
+            Cell[][] band = tiles[tr];
+            if (band == null) continue;
+            int rFrom = tr << ROW_BITS;
+            int rTo = Math.min(rows, rFrom + TiledStorage.TILE_ROWS);
+            for (int r = rFrom; r < rTo; r++) {
+                for (int tc = 0; tc < band.length; tc++) {
+                    Cell[] tile = band[tc];
+                    if (tile == null) continue;
+                    int base = (r & ROW_MASK) << COL_BITS;
+                    int cFrom = tc << COL_BITS;
+                    for (int i = 0; i < TiledStorage.TILE_COLS; i++) {
+                        Cell cell = tile[base + i];
+                        if (cell != null) visitor.visit(r, cFrom + i, cell);
+                    }
+                }
+            }
+        }
+    }
+
+    private static Iterable<Cell[]> rows(Cell[][][] tiles, int rows, int cols) {
+        return () -> new Iterator<>() {
+            private int next = advance(0);
+
+            private int advance(int r) {
+                while (r < rows) {
+                    int tr = r >>> ROW_BITS;
+                    if (tr < tiles.length && tiles[tr] != null) return r;
+                    r = (tr + 1) << ROW_BITS;
+                }
+                return rows;
+            }
+
+            @Override public boolean hasNext() { return next < rows; }
+
+            @Override
+            public Cell[] next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                Cell[] row = new Cell[cols];
+                for (int c = 0; c < cols; c++) row[c] = lookup(tiles, next, c);
+                next = advance(next + 1);
+                return row;
+            }
+        };
+    }
+
+    private static int offset(int row0, int col0) {
+        return ((row0 & ROW_MASK) << COL_BITS) | (col0 & COL_MASK);
+    }
+
+    private static void checkNonNegative(int r, int c) {
+        if (r < 0 || c < 0)
+            throw new IndexOutOfBoundsException("Index out of bounds: " + r + "," + c);
+    }
+}
@@ -0,0 +1,316 @@
+import bench.Workloads;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The benchmark cases, built against the package-private sheet API. Each
+ * method sets its case up once and returns the operation JMH measures; the
+ * benchmark classes in {@code bench} load this class by name.
+ *
+ * Sizes are rows of the sheet a case builds, or cells of the range for
+ * aggregateWide; density is the fraction of cells holding formulas rather
+ * than numbers.
+ */
+public final class SheetWorkloads implements Workloads {
+
+    private static final String[] FORMULAS = {
+            "=A1+B2*3", "=SUM(A1:A100)/MAX(B1:B100)", "=(A1-B1)*(C1+D1)/2", "=MEAN(A1:D50)+MIN(C3:C9)*1.5"
+    };
+    private static final int COLS = 10;
+    private static final int WIDE_ROWS = AggregateIndex.THRESHOLD / 2;
+
+    // ---------- Parsing ----------
+
+    @Override
+    public Op tokenize() {
+        int[] i = {0};
+        return () -> new FormulaTokenizer(FORMULAS[i[0]++ & 3].substring(1)).tokenize().size();
+    }
+
+    @Override
+    public Op parse() {
+        FormulaParser parser = new FormulaParser();
+        int[] i = {0};
+        return () -> parser.parse(FORMULAS[i[0]++ & 3]).code.length;
+    }
+
+    // Same shapes at shifting positions: the template cache path every load and edit takes
+    @Override
+    public Op parseCached() {
+        int[] i = {0};
+        return () -> {
+            int n = i[0]++;
+            return new FormulaContent(FORMULAS[n & 3], 200 + (n & 1023), 5).getParsed().code.length;
+        };
+    }
+
+    // ---------- Evaluation ----------
+
+    @Override
+    public Op evalScalar(boolean compiled) {
+        return eval("=A1*2+B1/3-C1", compiled);
+    }
+
+    @Override
+    public Op evalFunctions(boolean compiled) {
+        return eval("=SUM(A1:A8)*MAX(B1:B8)-MIN(A1:C4)/MEAN(C1:C8)", compiled);
+    }
+
+    // One formula in row 10 of a sheet of small numbers, evaluated without its cache
+    private static Op eval(String raw, boolean compiled) {
+        Spreadsheet s = Spreadsheet.tiled(10, 3);
+        for (int r = 1; r <= 8; r++)
+            for (int c = 1; c <= 3; c++) s.setCell(r, c, new NumericContent(r * c + 0.5));
+        FormulaContent f = new FormulaContent(raw, 10, 1);
+        s.setCell(10, 1, f);
+        if (!compiled) {
+            PostfixEvaluator evaluator = PostfixEvaluator.forCurrentThread();
+            return () -> evaluator.evaluate(f.getParsed(), 10, 1, s);
+        }
+        CompiledFormula program = FormulaCompiler.compile(f.getParsed());
+        if (program == null) throw new IllegalStateException("Not compilable: " + raw);
+        return () -> program.evaluate(s, 10, 1);
+    }
+
+    @Override
+    public Op evalRange(int rows) {
+        Spreadsheet s = Spreadsheet.tiled(rows + 1, 2);
+        for (int r = 1; r <= rows; r++) s.setCell(r, 1, new NumericContent(r));
+        FormulaContent f = new FormulaContent("=SUM(A1:A" + rows + ")", 1, 2);
+        s.setCell(1, 2, f);
+        return () -> {
+            f.clearCache();
+            return f.getNumericValue(s);
+        };
+    }
+
+    // SUM over a WIDE_ROWS-row block of n numbers, with one formula per row mixed in
+    @Override
+    public Op aggregateWide(int cells, String impl) {
+        boolean kernel = !impl.equals("scalar");
+        if (kernel) {
+            // Read when RangeKernel initializes, which nothing in this fork has made it do yet
+            System.setProperty("spreadsheet.vectorKernel", String.valueOf(impl.equals("vector")));
+            if (RangeKernel.VECTOR != impl.equals("vector"))
+                throw new IllegalStateException("RangeKernel cannot run " + impl + " lanes in this JVM");
+        }
+        int cols = Math.max(1, cells / WIDE_ROWS);
+        Spreadsheet s = Spreadsheet.tiled(WIDE_ROWS, cols + 1);
+        Random rnd = new Random(42);
+        for (int r = 1; r <= WIDE_ROWS; r++) {
+            for (int c = 1; c <= cols; c++) s.setCell(r, c, new NumericContent(rnd.nextInt(1000) / 8.0));
+            s.setCell(r, cols / 2 + 1, new FormulaContent("=A" + r + "*2", r, cols / 2 + 1));
+        }
+        s.recomputeAll();
+        Aggregate agg = new Aggregate();
+        return () -> {
+            agg.reset();
+            if (kernel) {
+                s.aggregateRange(1, 1, WIDE_ROWS, cols, agg);
+            } else {
+                for (int r = 1; r <= WIDE_ROWS; r++)
+                    for (int c = 1; c <= cols; c++) agg.add(s.getCell(r, c).getContent().getNumericValue(s));
+            }
+            return agg.result(ParsedFormula.SUM);
+        };
+    }
+
+    // One op reads n formulas whose values are all cached
+    @Override
+    public Op cachedReads(int formulas) {
+        Spreadsheet s = Spreadsheet.tiled(formulas, 2);
+        FormulaContent[] fs = new FormulaContent[formulas];
+        for (int r = 1; r <= formulas; r++) {
+            s.setCell(r, 1, new NumericContent(r));
+            s.setCell(r, 2, fs[r - 1] = new FormulaContent("=A" + r + "*2", r, 2));
+            fs[r - 1].getNumericValue(s);
+        }
+        return () -> {
+            double acc = 0;
+            for (FormulaContent f : fs) acc += f.getNumericValue(s);
+            return acc;
+        };
+    }
+
+    // ---------- Edits ----------
+
+    // A1 feeds a chain B1 <- B2 <- ... ; each op edits A1 and reads the far end
+    @Override
+    public Op editChain(int rows) {
+        Spreadsheet s = Spreadsheet.tiled(rows, 2);
+        s.setCell(1, 1, new NumericContent(0));
+        s.setCell(1, 2, new FormulaContent("=A1+1", 1, 2));
+        for (int r = 2; r <= rows; r++) s.setCell(r, 2, new FormulaContent("=B" + (r - 1) + "+1", r, 2));
+        int[] i = {0};
+        return () -> {
+            s.setCell(1, 1, new NumericContent(i[0]++));
+            return s.getCell(rows, 2).getContent().getNumericValue(s);
+        };
+    }
+
+    // Every formula reads A1; each op edits A1 and reads one of them
+    @Override
+    public Op editFanout(int rows) {
+        Spreadsheet s = Spreadsheet.tiled(rows, 2);
+        s.setCell(1, 1, new NumericContent(0));
+        for (int r = 1; r <= rows; r++) s.setCell(r, 2, new FormulaContent("=A1*" + r, r, 2));
+        int[] i = {0};
+        return () -> {
+            s.setCell(1, 1, new NumericContent(i[0]++));
+            return s.getCell(rows, 2).getContent().getNumericValue(s);
+        };
+    }
+
+    /**
+     * A chain B1..Bn plus one reader Cr of each Br, 2n edges in all. Each op is
+     * one checked replacement of a cell's edges straight on the graph, so no
+     * invalidation is timed: a reader moved to another chain cell, a chain cell
+     * given an extra input further up, or a chain cell pointed further down,
+     * which closes a cycle and must be rejected.
+     */
+    @Override
+    public Op editRepoint(int edges) {
+        int n = edges / 2;
+        DependencyGraph g = new DependencyGraph();
+        g.setPrecedents(CellId.of(1, 2), precedents(CellId.of(1, 1)));
+        for (int r = 2; r <= n; r++) g.setPrecedents(CellId.of(r, 2), precedents(CellId.of(r - 1, 2)));
+        for (int r = 1; r <= n; r++) g.setPrecedents(CellId.of(r, 3), precedents(CellId.of(r, 2)));
+        Random rnd = new Random(n);
+        int[] i = {0};
+        return () -> {
+            int k = 70 + rnd.nextInt(n - 140);
+            int d = 2 + rnd.nextInt(64);
+            long cell = CellId.of(k, 2);
+            long previous = CellId.of(k - 1, 2);
+            boolean accepted;
+            switch (i[0]++ % 3) {
+                case 0 -> accepted = g.trySetPrecedents(CellId.of(k, 3), precedents(CellId.of(1 + rnd.nextInt(n), 2)));
+                case 1 -> accepted = g.trySetPrecedents(cell, precedents(previous, CellId.of(k - d, 2)));
+                default -> {
+                    if (g.trySetPrecedents(cell, precedents(previous, CellId.of(k + d, 2))))
+                        throw new IllegalStateException("Cycle through B" + k + " was accepted");
+                    accepted = false;
+                }
+            }
+            return accepted ? 1 : 0;
+        };
+    }
+
+    private static DependencyGraph.Precedents precedents(long... cells) {
+        return new DependencyGraph.Precedents(cells, DependencyGraph.NO_RANGES);
+    }
+
+    @Override
+    public Op recomputeAll(int rows, double density, ForkJoinPool pool) {
+        Spreadsheet s = sheet(rows, density);
+        return () -> {
+            if (pool == null) s.recomputeAll();
+            else s.recomputeAll(pool);
+            return s.getCell(rows, COLS).getContent().getNumericValue(s);
+        };
+    }
+
+    // ---------- I/O ----------
+
+    @Override
+    public Op save(int rows, double density, boolean snapshot) throws Exception {
+        Spreadsheet s = sheet(rows, density);
+        s.recomputeAll();
+        Path out = tempFile(snapshot);
+        if (snapshot) {
+            SnapshotSerializer io = new SnapshotSerializer();
+            return () -> {
+                io.save(s, out);
+                return Files.size(out);
+            };
+        }
+        S2VSerializer io = new S2VSerializer();
+        return () -> {
+            io.save(s, out);
+            return Files.size(out);
+        };
+    }
+
+    @Override
+    public Op open(int rows, double density, boolean snapshot) throws Exception {
+        Spreadsheet s = sheet(rows, density);
+        s.recomputeAll();
+        Path in = tempFile(snapshot);
+        if (snapshot) {
+            SnapshotSerializer io = new SnapshotSerializer();
+            io.save(s, in);
+            long bytes = Files.size(in);
+            return () -> {
+                io.load(in);
+                return bytes;
+            };
+        }
+        S2VSerializer io = new S2VSerializer();
+        io.save(s, in);
+        long bytes = Files.size(in);
+        return () -> {
+            io.load(in);
+            return bytes;
+        };
+    }
+
+    // The loader's side of an S2V open without the file: text arrives per cell, formulas are parsed in finish
+    @Override
+    public Op bulkLoad(int rows, double density) {
+        Spreadsheet source = sheet(rows, density);
+        CellContent[][] plain = new CellContent[rows][COLS];
+        String[][] formulas = new String[rows][COLS];
+        source.forEachCellInternal((r, c, cell) -> {
+            CellContent content = cell.getContent();
+            if (content instanceof FormulaContent) formulas[r][c] = content.getRaw();
+            else plain[r][c] = content;
+        });
+        return () -> {
+            Spreadsheet s = Spreadsheet.tiled(rows, COLS);
+            Spreadsheet.BulkLoad bulk = s.beginBulkLoad();
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < COLS; c++) {
+                    if (formulas[r][c] != null) bulk.putFormula(r + 1, c + 1, formulas[r][c]);
+                    else if (plain[r][c] != null) bulk.put(r + 1, c + 1, plain[r][c]);
+                }
+            }
+            bulk.finish();
+            return bulk.cellCount();
+        };
+    }
+
+    @Override
+    public void metrics(boolean on) {
+        RecalcMetrics.enable(on);
+    }
+
+    private static Path tempFile(boolean snapshot) throws Exception {
+        Path p = Files.createTempFile("bench", snapshot ? ".s2vb" : ".s2v");
+        p.toFile().deleteOnExit();
+        return p;
+    }
+
+    /**
+     * {@code rows} x 10 sheet; a {@code density} share of cells are formulas,
+     * alternating between reading the left neighbour and summing the row so far.
+     */
+    private static Spreadsheet sheet(int rows, double density) {
+        Spreadsheet s = Spreadsheet.tiled(rows, COLS);
+        Random rnd = new Random(rows);
+        for (int r = 1; r <= rows; r++) {
+            s.setCell(r, 1, new NumericContent(rnd.nextInt(1000)));
+            for (int c = 2; c <= COLS; c++) {
+                if (rnd.nextDouble() >= density) {
+                    s.setCell(r, c, new NumericContent(rnd.nextInt(1000)));
+                    continue;
+                }
+                String left = Spreadsheet.indicesToCoord(r, c - 1);
+                String raw = (c & 1) == 0 ? "=" + left + "*2+1" : "=SUM(" + Spreadsheet.indicesToCoord(r, 1) + ":" + left + ")";
+                s.setCell(r, c, new FormulaContent(raw, r, c));
+            }
+        }
+        return s;
+    }
+}
@@ -0,0 +1,46 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * SUM over a range too short for the aggregate index, cell by cell or through
+ * RangeKernel with scalar or Vector API lanes. Each impl runs in forks of its
+ * own, since RangeKernel picks its lanes once per JVM.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(2)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class AggregateBenchmarks {
+
+    @Param({"1000", "10000", "100000"})
+    public int cells;
+
+    @Param({"scalar", "kernel", "vector"})
+    public String impl;
+
+    private Workloads.Op op;
+
+    @Setup
+    public void setup() {
+        op = Workloads.load().aggregateWide(cells, impl);
+    }
+
+    @Benchmark
+    public double aggregateWide() throws Exception {
+        return op.run();
+    }
+}
@@ -0,0 +1,89 @@
+package bench;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares two JMH result files written with {@code -rf json}: prints the
+ * new/base ratio of every benchmark and parameter set in both, and exits 1
+ * if any score fell by more than the threshold (default 0.10).
+ *
+ * <pre>
+ * Compare BASE.json NEW.json [threshold]
+ * </pre>
+ */
+public final class Compare {
+
+    // One "name" : value line of JMH's pretty-printed JSON
+    private static final Pattern FIELD = Pattern.compile("\\s*\"([^\"]+)\" : \"?([^\",]*)\"?,?");
+
+    private Compare() {}
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) throw new IllegalArgumentException("Usage: Compare BASE.json NEW.json [threshold]");
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 0.10;
+        System.exit(compare(Paths.get(args[0]), Paths.get(args[1]), threshold, System.out) ? 1 : 0);
+    }
+
+    /** Prints the ratios; true if any benchmark fell by more than {@code threshold}. */
+    static boolean compare(Path base, Path current, double threshold, PrintStream out) throws IOException {
+        Map<String, Double> before = scores(base);
+        Map<String, Double> after = scores(current);
+        boolean regressed = false;
+        out.printf(Locale.ROOT, "%-60s %14s %14s %8s%n", "benchmark", "base", "new", "ratio");
+        for (Map.Entry<String, Double> e : after.entrySet()) {
+            Double old = before.get(e.getKey());
+            if (old == null || old == 0) continue;
+            double ratio = e.getValue() / old;
+            boolean worse = ratio < 1 - threshold;
+            regressed |= worse;
+            out.printf(Locale.ROOT, "%-60s %14.2f %14.2f %7.2fx%s%n", e.getKey(), old, e.getValue(), ratio,
+                    worse ? "  REGRESSION" : "");
+        }
+        return regressed;
+    }
+
+    /** Primary score per "Class.method param=value ..." key. */
+    static Map<String, Double> scores(Path path) throws IOException {
+        Map<String, Double> scores = new LinkedHashMap<>();
+        StringBuilder key = null;
+        boolean inParams = false;
+        boolean inPrimary = false;
+        for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            Matcher m = FIELD.matcher(line);
+            if (!m.matches()) {
+                if (line.trim().startsWith("}")) inParams = false;
+                continue;
+            }
+            String name = m.group(1);
+            String value = m.group(2);
+            if (inParams) {
+                key.append(' ').append(name).append('=').append(value);
+                continue;
+            }
+            switch (name) {
+                case "benchmark" -> {
+                    key = new StringBuilder(value.substring(value.lastIndexOf('.', value.lastIndexOf('.') - 1) + 1));
+                    inPrimary = false;
+                }
+                case "params" -> inParams = key != null;
+                case "primaryMetric" -> inPrimary = key != null;
+                case "score" -> {
+                    if (inPrimary) scores.put(key.toString(), Double.parseDouble(value));
+                    inPrimary = false;
+                }
+                default -> { }
+            }
+        }
+        return scores;
+    }
+}
@@ -0,0 +1,48 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** One formula evaluated by the lambda-tree compiler or by the postfix interpreter. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(2)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class EvalBenchmarks {
+
+    @Param({"compiled", "interpreted"})
+    public String impl;
+
+    private Workloads.Op scalar;
+    private Workloads.Op functions;
+
+    @Setup
+    public void setup() {
+        Workloads w = Workloads.load();
+        boolean compiled = impl.equals("compiled");
+        scalar = w.evalScalar(compiled);
+        functions = w.evalFunctions(compiled);
+    }
+
+    @Benchmark
+    public double evalScalar() throws Exception {
+        return scalar.run();
+    }
+
+    @Benchmark
+    public double evalFunctions() throws Exception {
+        return functions.run();
+    }
+}
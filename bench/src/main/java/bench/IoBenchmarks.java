@@ -0,0 +1,111 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Save and open of a whole sheet as S2V text or as a binary snapshot. The
+ * primary score is files per second; the "bytes" secondary score is the
+ * file throughput in bytes per second. {@link Bulk} times the bulk-load path
+ * alone and reports cells per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(2)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class IoBenchmarks {
+
+    @Param({"1000", "10000", "100000"})
+    public int rows;
+
+    @Param({"0.1", "0.5"})
+    public double density;
+
+    @Param({"s2v", "snapshot"})
+    public String format;
+
+    private Workloads.Op save;
+    private Workloads.Op open;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        Workloads w = Workloads.load();
+        boolean snapshot = format.equals("snapshot");
+        save = w.save(rows, density, snapshot);
+        open = w.open(rows, density, snapshot);
+    }
+
+    @Benchmark
+    public void save(Bytes counter) throws Exception {
+        counter.bytes += (long) save.run();
+    }
+
+    @Benchmark
+    public void open(Bytes counter) throws Exception {
+        counter.bytes += (long) open.run();
+    }
+
+    /** Parallel formula parse, edge install and recalculation of a load, without reading a file. */
+    @State(Scope.Thread)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Fork(2)
+    @Warmup(iterations = 3, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    public static class Bulk {
+
+        @Param({"10000", "100000"})
+        public int rows;
+
+        @Param({"0.1", "0.5"})
+        public double density;
+
+        private Workloads.Op load;
+
+        @State(Scope.Thread)
+        @AuxCounters(AuxCounters.Type.OPERATIONS)
+        public static class Cells {
+            public long cells;
+
+            @Setup(Level.Iteration)
+            public void reset() {
+                cells = 0;
+            }
+        }
+
+        @Setup
+        public void setup() {
+            load = Workloads.load().bulkLoad(rows, density);
+        }
+
+        @Benchmark
+        public void bulkLoad(Cells counter) throws Exception {
+            counter.cells += (long) load.run();
+        }
+    }
+}
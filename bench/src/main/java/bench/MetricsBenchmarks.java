@@ -0,0 +1,51 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The paths with the densest RecalcMetrics probes, with metrics off and on.
+ * Compare metrics=off across versions for the cost of the switched-off probes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(2)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MetricsBenchmarks {
+
+    @Param({"off", "on"})
+    public String metrics;
+
+    private Workloads.Op cachedReads;
+    private Workloads.Op editChain;
+
+    @Setup
+    public void setup() {
+        Workloads w = Workloads.load();
+        w.metrics(metrics.equals("on"));
+        cachedReads = w.cachedReads(1_000);
+        editChain = w.editChain(1_000);
+    }
+
+    @Benchmark
+    public double cachedReads() throws Exception {
+        return cachedReads.run();
+    }
+
+    @Benchmark
+    public double editChain() throws Exception {
+        return editChain.run();
+    }
+}
@@ -0,0 +1,50 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Tokenizer and parser throughput, cold and through the template cache. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(2)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ParseBenchmarks {
+
+    private Workloads.Op tokenize;
+    private Workloads.Op parse;
+    private Workloads.Op parseCached;
+
+    @Setup
+    public void setup() {
+        Workloads w = Workloads.load();
+        tokenize = w.tokenize();
+        parse = w.parse();
+        parseCached = w.parseCached();
+    }
+
+    @Benchmark
+    public double tokenize() throws Exception {
+        return tokenize.run();
+    }
+
+    @Benchmark
+    public double parse() throws Exception {
+        return parse.run();
+    }
+
+    @Benchmark
+    public double parseCached() throws Exception {
+        return parseCached.run();
+    }
+}
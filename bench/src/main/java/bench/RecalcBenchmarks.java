@@ -0,0 +1,57 @@
+package bench;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Full recalculation, sequential (threads=0) or level-parallel on a pool of
+ * that many workers; compare the threads values of one size for scaling.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(2)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RecalcBenchmarks {
+
+    @Param({"1000", "10000", "100000"})
+    public int rows;
+
+    @Param({"0.1", "0.5"})
+    public double density;
+
+    @Param({"0", "1", "2", "4", "8"})
+    public int threads;
+
+    private ForkJoinPool pool;
+    private Workloads.Op op;
+
+    @Setup
+    public void setup() {
+        pool = threads == 0 ? null : new ForkJoinPool(threads);
+        op = Workloads.load().recomputeAll(rows, density, pool);
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (pool != null) pool.shutdown();
+    }
+
+    @Benchmark
+    public double recomputeAll() throws Exception {
+        return op.run();
+    }
+}
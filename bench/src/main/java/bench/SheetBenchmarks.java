@@ -0,0 +1,57 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A tall SUM evaluated without its cache, and edit-invalidate-read round
+ * trips: A1 feeding a chain of formulas, or read by every formula.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(2)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SheetBenchmarks {
+
+    @Param({"1000", "10000", "100000"})
+    public int rows;
+
+    private Workloads.Op evalRange;
+    private Workloads.Op editChain;
+    private Workloads.Op editFanout;
+
+    @Setup
+    public void setup() {
+        Workloads w = Workloads.load();
+        evalRange = w.evalRange(rows);
+        editChain = w.editChain(rows);
+        editFanout = w.editFanout(rows);
+    }
+
+    @Benchmark
+    public double evalRange() throws Exception {
+        return evalRange.run();
+    }
+
+    @Benchmark
+    public double editChain() throws Exception {
+        return editChain.run();
+    }
+
+    @Benchmark
+    public double editFanout() throws Exception {
+        return editFanout.run();
+    }
+}
@@ -0,0 +1,63 @@
+package bench;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The cases the benchmarks measure. The sheet classes live in the default
+ * package, which a named package cannot refer to, and JMH only accepts
+ * benchmarks in a named package; so each case is built by SheetWorkloads in
+ * the default package and reached through this interface.
+ */
+public interface Workloads {
+
+    /** One measured operation; returns its result, or for I/O cases the bytes it processed. */
+    @FunctionalInterface
+    interface Op {
+        double run() throws Exception;
+    }
+
+    Op tokenize();
+
+    Op parse();
+
+    Op parseCached();
+
+    Op evalScalar(boolean compiled);
+
+    Op evalFunctions(boolean compiled);
+
+    Op evalRange(int rows);
+
+    /** {@code impl} is scalar (cell by cell), kernel (RangeKernel's scalar lanes) or vector (its Vector API lanes). */
+    Op aggregateWide(int cells, String impl);
+
+    Op cachedReads(int formulas);
+
+    Op editChain(int rows);
+
+    Op editFanout(int rows);
+
+    /** Checked edge replacements, a third of them rejected as cycles, on a graph of {@code edges} edges. */
+    Op editRepoint(int edges);
+
+    /** Sequential recalculation when {@code pool} is null. */
+    Op recomputeAll(int rows, double density, ForkJoinPool pool);
+
+    Op save(int rows, double density, boolean snapshot) throws Exception;
+
+    Op open(int rows, double density, boolean snapshot) throws Exception;
+
+    /** Loads prepared cell text through the sheet's bulk-load path; returns the cells loaded. */
+    Op bulkLoad(int rows, double density);
+
+    /** Switches RecalcMetrics for the rest of the fork. */
+    void metrics(boolean on);
+
+    static Workloads load() {
+        try {
+            return (Workloads) Class.forName("SheetWorkloads").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("SheetWorkloads is not on the class path", e);
+        }
+    }
+}
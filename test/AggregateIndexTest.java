@@ -0,0 +1,99 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.math.BigDecimal;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class AggregateIndexTest {
+
+    @Test
+    void rangesPastAFixedSheetFailOnEveryPath() {
+        Spreadsheet s = new Spreadsheet(100, 2);
+        for (int r = 1; r <= 100; r++) s.setCell(r, 1, new NumericContent(1));
+        assertEquals(100.0, sum(s, "=SUM(A1:A100)"));
+        // Tall enough for the index, and short enough for a cell scan
+        assertThrows(IndexOutOfBoundsException.class, () -> sum(s, "=SUM(A1:A200)"));
+        assertThrows(IndexOutOfBoundsException.class, () -> sum(s, "=SUM(A99:A110)"));
+        assertThrows(IndexOutOfBoundsException.class, () -> sum(s, "=SUM(A1:C1)"));
+    }
+
+    @Test
+    void growableSheetReadsPastItsExtentAsEmpty() {
+        Spreadsheet s = Spreadsheet.tiled(100, 2);
+        for (int r = 1; r <= 100; r++) s.setCell(r, 1, new NumericContent(1));
+        assertEquals(100.0, sum(s, "=SUM(A1:A200)"));
+        assertEquals(2.0, sum(s, "=SUM(A99:A110)"));
+    }
+
+    @Test
+    void indexAndScanAgreeOnMixedColumns() {
+        Spreadsheet s = Spreadsheet.tiled(500, 3);
+        for (int r = 1; r <= 500; r++) {
+            s.setCell(r, 1, new NumericContent(r % 7 - 3));
+            if (r % 50 == 0) s.setCell(r, 2, new FormulaContent("=A" + r + "*10", r, 2));
+            else s.setCell(r, 2, new NumericContent(r * 0.5));
+        }
+        for (String f : new String[]{"SUM", "MIN", "MAX", "MEAN"}) {
+            double tall = sum(s, "=" + f + "(A3:B480)");
+            Aggregate scan = new Aggregate();
+            for (int r = 3; r <= 480; r++)
+                for (int c = 1; c <= 2; c++) scan.add(s.getCell(r, c).getContent().getNumericValue(s));
+            int op = switch (f) {
+                case "SUM" -> ParsedFormula.SUM;
+                case "MIN" -> ParsedFormula.MIN;
+                case "MAX" -> ParsedFormula.MAX;
+                default -> ParsedFormula.MEAN;
+            };
+            assertEquals(scan.result(op), tall, 1e-9, f);
+        }
+    }
+
+    @Test
+    void indexSumIsCompensated() {
+        // Plain pairwise sums lose every 1 next to 1e16; the exact answer is 1000
+        Spreadsheet s = Spreadsheet.tiled(1_002, 2);
+        s.setCell(1, 1, new NumericContent(1e16));
+        for (int r = 2; r <= 1_001; r++) s.setCell(r, 1, new NumericContent(1));
+        s.setCell(1_002, 1, new NumericContent(-1e16));
+        assertEquals(1_000.0, sum(s, "=SUM(A1:A1002)"));
+        assertEquals(1_000.0, scan(s, 1, 1_002, 1, 1).result(ParsedFormula.SUM));
+    }
+
+    @Test
+    void indexAndScanSumsMatchTheExactSum() {
+        Random rnd = new Random(9);
+        for (int round = 0; round < 20; round++) {
+            int rows = 100 + rnd.nextInt(3_000);
+            Spreadsheet s = Spreadsheet.tiled(rows, 2);
+            BigDecimal exact = BigDecimal.ZERO;
+            double magnitude = 0;
+            for (int r = 1; r <= rows; r++) {
+                double v = (rnd.nextBoolean() ? 1 : -1) * rnd.nextDouble() * Math.pow(10, rnd.nextInt(24) - 8);
+                s.setCell(r, 1, new NumericContent(v));
+                exact = exact.add(new BigDecimal(v));
+                magnitude += Math.abs(v);
+            }
+            double want = exact.doubleValue();
+            double tall = sum(s, "=SUM(A1:A" + rows + ")");
+            double scanned = scan(s, 1, rows, 1, 1).result(ParsedFormula.SUM);
+            double eps = Math.ulp(1.0) / 2;
+            assertEquals(want, tall, Math.ulp(want), "index, round " + round);
+            // Kahan's bound, (2 eps + O(n eps^2)) times the sum of magnitudes, plus the final rounding
+            double kahan = eps * Math.abs(want) + (2 * eps + 2 * rows * eps * eps) * magnitude;
+            assertEquals(want, scanned, kahan, "scan, round " + round);
+        }
+    }
+
+    private static Aggregate scan(Spreadsheet s, int r1, int r2, int c1, int c2) {
+        Aggregate agg = new Aggregate();
+        for (int r = r1; r <= r2; r++)
+            for (int c = c1; c <= c2; c++) agg.add(s.getCell(r, c).getContent().getNumericValue(s));
+        return agg;
+    }
+
+    private static double sum(Spreadsheet s, String formula) {
+        FormulaContent f = new FormulaContent(formula, 1, 2);
+        return f.getNumericValue(s);
+    }
+}
@@ -0,0 +1,78 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+class AggregateTest {
+
+    @Test
+    void overflowingSumIsInfiniteNotNaN() {
+        Spreadsheet s = Spreadsheet.tiled(4, 1);
+        s.setCell(1, 1, new NumericContent(1e308));
+        s.setCell(2, 1, new NumericContent(1e308));
+        s.setCell(3, 1, new NumericContent(1));
+        s.setCell(4, 1, new FormulaContent("=SUM(A1:A3)", 4, 1));
+        assertEquals(Double.POSITIVE_INFINITY, s.getCell(4, 1).getContent().getNumericValue(s));
+    }
+
+    @Test
+    void infiniteArgumentsKeepTheirSign() {
+        Aggregate agg = new Aggregate();
+        agg.add(Double.NEGATIVE_INFINITY);
+        agg.add(5);
+        assertEquals(Double.NEGATIVE_INFINITY, agg.result(ParsedFormula.SUM));
+        assertEquals(Double.NEGATIVE_INFINITY, agg.result(ParsedFormula.MEAN));
+        agg.add(Double.POSITIVE_INFINITY);
+        assertEquals(Double.NaN, agg.result(ParsedFormula.SUM));
+    }
+
+    @Test
+    void kernelRunsOverflowToInfinity() {
+        // The scalar lanes, then whatever fold uses in this JVM
+        for (boolean dispatch : new boolean[]{false, true}) {
+            double[] v = new double[1000];
+            Arrays.fill(v, 1);
+            // Both in the same scalar lane, so the overflow happens inside the compensated loop
+            v[8] = 1e308;
+            v[500] = 1e308;
+            Aggregate agg = fold(v, dispatch);
+            assertEquals(Double.POSITIVE_INFINITY, agg.result(ParsedFormula.SUM));
+            assertEquals(1e308, agg.result(ParsedFormula.MAX));
+
+            v[8] = 5;
+            v[500] = Double.NEGATIVE_INFINITY;
+            agg = fold(v, dispatch);
+            assertEquals(Double.NEGATIVE_INFINITY, agg.result(ParsedFormula.SUM));
+            assertEquals(Double.NEGATIVE_INFINITY, agg.result(ParsedFormula.MEAN));
+
+            v[8] = Double.POSITIVE_INFINITY;
+            agg = fold(v, dispatch);
+            assertEquals(Double.NaN, agg.result(ParsedFormula.SUM));
+        }
+    }
+
+    private static Aggregate fold(double[] v, boolean dispatch) {
+        Aggregate agg = new Aggregate();
+        if (dispatch) RangeKernel.fold(v, v.length, agg);
+        else RangeKernel.foldLanes(v, v.length, agg);
+        return agg;
+    }
+
+    @Test
+    void wideRangeOverflowIsInfinite() {
+        int cols = 600;
+        Spreadsheet s = Spreadsheet.tiled(2, cols);
+        // Columns 9 and 501 share a kernel lane
+        for (int c = 1; c <= cols; c++) s.setCell(1, c, new NumericContent(c == 9 || c == 501 ? 1e308 : 1));
+        String range = "A1:" + Spreadsheet.indicesToCoord(1, cols);
+        s.setCell(2, 1, new FormulaContent("=SUM(" + range + ")", 2, 1));
+        assertEquals(Double.POSITIVE_INFINITY, s.getCell(2, 1).getContent().getNumericValue(s));
+    }
+
+    @Test
+    void compensatedSumDoesNotDrift() {
+        Aggregate agg = new Aggregate();
+        for (int i = 0; i < 1_000_000; i++) agg.add(0.1);
+        assertEquals(100_000.0, agg.result(ParsedFormula.SUM), 1e-9);
+    }
+}
@@ -0,0 +1,52 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import org.junit.jupiter.api.Test;
+
+class BatchModeTest {
+
+    private static String[] run(String script, int expectedErrors) throws Exception {
+        StringWriter out = new StringWriter();
+        int errors = new BatchMode(out).run(new BufferedReader(new StringReader(script)));
+        assertEquals(expectedErrors, errors, out.toString());
+        return out.toString().split(System.lineSeparator());
+    }
+
+    @Test
+    void errorsOfARunAreReportedInLineOrder() throws Exception {
+        String[] out = run(String.join("\n",
+                "new 5 5",
+                "set A1 =A1",
+                "set A0 7",
+                "set B1 2",
+                "set ZZ 3",
+                "set C1 =B1*2",
+                "get C1"), 3);
+        assertEquals(4, out.length);
+        assertEquals("ERROR line 2: Circular dependency detected", out[0]);
+        assertEquals("ERROR line 3: Bad cell A0", out[1]);
+        assertEquals("ERROR line 5: Bad cell ZZ", out[2]);
+        assertEquals("4.0", out[3]);
+    }
+
+    @Test
+    void badCellDoesNotHoldBackTheRestOfTheRun() throws Exception {
+        String[] out = run(String.join("\n",
+                "new 5 5",
+                "set B1 2",
+                "set A0 7",
+                "set C1 =B1+1",
+                "get C1"), 1);
+        assertEquals("ERROR line 3: Bad cell A0", out[0]);
+        assertEquals("3.0", out[1]);
+    }
+
+    @Test
+    void setsBeforeAnySheetFailInOrder() throws Exception {
+        String[] out = run(String.join("\n", "set A1 1", "set A0 2", "new 2 2"), 2);
+        assertEquals("ERROR line 1: Create or load a spreadsheet first.", out[0]);
+        assertEquals("ERROR line 2: Create or load a spreadsheet first.", out[1]);
+    }
+}
@@ -0,0 +1,46 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class CellContentFactoryTest {
+
+    private static final String[] SAMPLES = {
+            "0", "-0", "+1", "42", "3.14", "-.5", "5.", ".", "-", "+", "1e10", "1E-3", "1e", "1e+", "2.5e+07",
+            "1f", "1D", "1.5F", "1e5d", "1ff", "NaN", "-NaN", "+Infinity", "-Infinity", "Infinityf", "nan", "inf",
+            "0x1p3", "0X1.8P-1", "0x.8p1", "0x1", "0x1.8", "0xp1", "0x1p", "0x1p1f", "0xg1p1", " 12 ", "\t7\n",
+            "1 2", "2024-01-01", "12:30", "1,5", "1_000", "١٢", "Total", "N", "I", "e5", ".e1", "--1", "+-1",
+    };
+
+    @Test
+    void agreesWithParseDouble() {
+        for (String s : SAMPLES) assertEquals(parses(s), CellContentFactory.isNumeric(s), s);
+        Random rnd = new Random(7);
+        String alphabet = "0123456789+-.eEpPxXfFdDaAbBNaInfity \t";
+        for (int k = 0; k < 200_000; k++) {
+            StringBuilder sb = new StringBuilder();
+            int len = 1 + rnd.nextInt(8);
+            for (int i = 0; i < len; i++) sb.append(alphabet.charAt(rnd.nextInt(alphabet.length())));
+            String s = sb.toString();
+            assertEquals(parses(s), CellContentFactory.isNumeric(s), s);
+        }
+    }
+
+    @Test
+    void classifiesRawCells() {
+        assertInstanceOf(NumericContent.class, CellContentFactory.fromRaw("1.5e3", 1, 1));
+        assertInstanceOf(TextContent.class, CellContentFactory.fromRaw("2024-01-01", 1, 1));
+        assertInstanceOf(FormulaContent.class, CellContentFactory.fromRaw("=A2", 1, 1));
+        assertInstanceOf(EmptyContent.class, CellContentFactory.fromRaw("", 1, 1));
+    }
+
+    private static boolean parses(String s) {
+        try {
+            Double.parseDouble(s);
+            return true;
+        } catch (NumberFormatException ex) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ChangeJournalTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void replaysEditsAndTransactions() throws Exception {
+        Path p = dir.resolve("sheet.s2vb");
+        ChangeJournal j = ChangeJournal.create(Spreadsheet.tiled(10, 3), p, ChangeJournal.Durability.SYNC);
+        Spreadsheet s = j.sheet();
+        s.setCell(1, 1, new NumericContent(2));
+        s.begin().set(2, 1, new NumericContent(3)).setFormula(1, 2, "=A1*A2").commit();
+        j.close();
+
+        ChangeJournal k = ChangeJournal.open(p, ChangeJournal.Durability.SYNC);
+        Spreadsheet t = k.sheet();
+        assertEquals(6.0, t.getCell(1, 2).getContent().getNumericValue(t));
+        t.setCell(2, 1, new NumericContent(5));
+        assertEquals(10.0, t.getCell(1, 2).getContent().getNumericValue(t));
+        k.close();
+    }
+
+    @Test
+    void tornTransactionIsDroppedAsAWhole() throws Exception {
+        Path p = dir.resolve("sheet.s2vb");
+        ChangeJournal j = ChangeJournal.create(Spreadsheet.tiled(10, 3), p, ChangeJournal.Durability.SYNC);
+        j.sheet().setCell(1, 1, new NumericContent(1));
+        j.sheet().begin()
+                .set(1, 1, new NumericContent(7))
+                .set(2, 1, new NumericContent(8))
+                .set(3, 1, new TextContent("late"))
+                .commit();
+        j.close();
+        Path log = dir.resolve("sheet.s2vb.journal");
+        try (FileChannel ch = FileChannel.open(log, StandardOpenOption.WRITE)) {
+            ch.truncate(ch.size() - 6);
+        }
+
+        ChangeJournal k = ChangeJournal.open(p, ChangeJournal.Durability.SYNC);
+        Spreadsheet t = k.sheet();
+        assertEquals(1.0, t.getCell(1, 1).getContent().getNumericValue(t));
+        assertEquals("", t.getCell(2, 1).getContent().getRaw());
+        assertEquals("", t.getCell(3, 1).getContent().getRaw());
+        k.close();
+    }
+
+    @Test
+    void editIsNotAppliedWhenItsRecordCannotBeWritten() throws Exception {
+        Path p = dir.resolve("sheet.s2vb");
+        ChangeJournal j = ChangeJournal.create(Spreadsheet.tiled(10, 3), p, ChangeJournal.Durability.GROUP);
+        Spreadsheet s = j.sheet();
+        s.setCell(1, 1, new NumericContent(1));
+        s.setCell(1, 2, new FormulaContent("=A1+1", 1, 2));
+
+        // An interrupted write closes the log's channel, so the append fails
+        Thread.currentThread().interrupt();
+        try {
+            assertThrows(UncheckedIOException.class, () -> s.setCell(1, 2, new FormulaContent("=C1", 1, 2)));
+        } finally {
+            Thread.interrupted();
+        }
+        s.setJournal(null);
+
+        assertEquals("=A1+1", s.getCell(1, 2).getContent().getRaw());
+        s.setCell(1, 1, new NumericContent(4));
+        assertEquals(5.0, s.getCell(1, 2).getContent().getNumericValue(s));
+        s.setCell(1, 3, new NumericContent(9));
+        assertEquals(5.0, s.getCell(1, 2).getContent().getNumericValue(s));
+    }
+
+    @Test
+    void groupCommitSurvivesConcurrentCompactions() throws Exception {
+        Path p = dir.resolve("sheet.s2vb");
+        ChangeJournal j = ChangeJournal.create(Spreadsheet.tiled(500, 4), p, ChangeJournal.Durability.GROUP);
+        Spreadsheet s = j.sheet();
+        int threads = 4;
+        int edits = 400;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> done = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int col = t + 1;
+                done.add(pool.submit(() -> {
+                    for (int i = 1; i <= edits; i++) {
+                        if ((i & 7) == 0) {
+                            s.begin().set(i, col, new NumericContent(i)).set(i - 1, col, new NumericContent(-i)).commit();
+                        } else {
+                            s.setCell(i, col, new NumericContent(i));
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (int i = 0; i < 20; i++) {
+                j.compactInBackground();
+                if ((i & 3) == 3) j.compact();
+            }
+            for (Future<?> f : done) f.get();
+        } finally {
+            pool.shutdown();
+        }
+        j.close();
+
+        ChangeJournal k = ChangeJournal.open(p, ChangeJournal.Durability.GROUP);
+        Spreadsheet t = k.sheet();
+        for (int col = 1; col <= threads; col++) {
+            for (int i = 1; i <= edits; i++) {
+                double expected = (i & 7) == 7 ? -(i + 1) : i;
+                assertEquals(expected, t.getCell(i, col).getContent().getNumericValue(t), "row " + i + " col " + col);
+            }
+        }
+        k.close();
+    }
+}
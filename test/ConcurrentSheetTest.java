@@ -0,0 +1,94 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class ConcurrentSheetTest {
+
+    @Test
+    void readLockOnOneSheetDoesNotCoverAnother() throws Exception {
+        Spreadsheet a = Spreadsheet.tiled(2, 2).concurrent();
+        a.setCell(1, 1, new NumericContent(1));
+        Spreadsheet b = Spreadsheet.tiled(2, 2).concurrent();
+        b.setCell(1, 1, new NumericContent(1));
+        FormulaContent f = new FormulaContent("=A1*2", 1, 2);
+        b.setCell(1, 2, f);
+
+        CountDownLatch editing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread writer = new Thread(() -> b.exclusive(() -> {
+            editing.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        }));
+        writer.start();
+        editing.await();
+
+        // Evaluating b's formula while holding a's read lock must still wait for b's writer
+        CountDownLatch evaluated = new CountDownLatch(1);
+        Thread reader = new Thread(() -> a.forEachCellInternal((r, c, cell) -> {
+            f.getNumericValue(b);
+            evaluated.countDown();
+        }));
+        reader.start();
+        assertFalse(evaluated.await(300, TimeUnit.MILLISECONDS), "read b without its lock");
+        release.countDown();
+        assertTrue(evaluated.await(10, TimeUnit.SECONDS));
+        reader.join();
+        writer.join();
+    }
+
+    @Test
+    void nestedReadersNeverSeeHalfATransaction() throws Exception {
+        Spreadsheet outer = Spreadsheet.tiled(50, 4).concurrent();
+        for (int r = 1; r <= 50; r++) outer.setCell(r, 1, new NumericContent(r));
+        Spreadsheet inner = Spreadsheet.tiled(4, 4).concurrent();
+        inner.begin().set(1, 1, new NumericContent(0)).set(1, 2, new NumericContent(0))
+                .setFormula(1, 3, "=A1+B1").commit();
+
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicInteger torn = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> done = new ArrayList<>();
+            done.add(pool.submit(() -> {
+                for (int k = 1; !stop.get(); k++) {
+                    inner.begin().set(1, 1, new NumericContent(k)).set(1, 2, new NumericContent(-k)).commit();
+                }
+                return null;
+            }));
+            for (int t = 0; t < 3; t++) {
+                done.add(pool.submit(() -> {
+                    while (!stop.get()) {
+                        // Reads of inner happen while this thread holds outer's read lock
+                        outer.forEachCellInternal((r, c, cell) -> {
+                            double v = inner.getCell(1, 3).getContent().getNumericValue(inner);
+                            if (v != 0) torn.incrementAndGet();
+                        });
+                    }
+                    return null;
+                }));
+            }
+            Thread.sleep(1500);
+            stop.set(true);
+            for (Future<?> f : done) f.get();
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(0, torn.get());
+    }
+}
@@ -0,0 +1,116 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class DependencyGraphTest {
+
+    private static final int SIZE = 8;
+
+    private static DependencyGraph.Precedents cells(long... ids) {
+        return new DependencyGraph.Precedents(ids, DependencyGraph.NO_RANGES);
+    }
+
+    private static DependencyGraph.Precedents randomPrecedents(Random rnd) {
+        long[] cells = new long[rnd.nextInt(3)];
+        for (int i = 0; i < cells.length; i++) cells[i] = CellId.of(1 + rnd.nextInt(SIZE), 1 + rnd.nextInt(SIZE));
+        int[] ranges = DependencyGraph.NO_RANGES;
+        if (cells.length == 0 || rnd.nextInt(3) == 0) {
+            int r1 = 1 + rnd.nextInt(SIZE);
+            int c1 = 1 + rnd.nextInt(SIZE);
+            ranges = new int[]{r1, c1, r1 + rnd.nextInt(3), c1 + rnd.nextInt(2)};
+        }
+        return new DependencyGraph.Precedents(cells, ranges);
+    }
+
+    // Every formula comes after each formula it reads, singly or through a range
+    private static void assertOrdered(DependencyGraph g) {
+        long[] order = g.topologicalOrder();
+        long[] sorted = order.clone();
+        Arrays.sort(sorted);
+        assertArrayEquals(g.formulaCells(), sorted);
+        Map<Long, Integer> position = new HashMap<>();
+        for (int i = 0; i < order.length; i++) position.put(order[i], i);
+        for (long f : order) {
+            DependencyGraph.Precedents deps = g.precedentsOf(f);
+            for (long p : order) {
+                if (deps.covers(p)) {
+                    assertTrue(position.get(p) < position.get(f),
+                            CellId.toCoord(p) + " is read by " + CellId.toCoord(f) + " but ordered after it");
+                }
+            }
+        }
+    }
+
+    @Test
+    void checkedEditsAgreeWithAFullSearch() {
+        Random rnd = new Random(17);
+        DependencyGraph g = new DependencyGraph();
+        int rejected = 0;
+        for (int step = 0; step < 3_000; step++) {
+            long id = CellId.of(1 + rnd.nextInt(SIZE), 1 + rnd.nextInt(SIZE));
+            if (rnd.nextInt(5) == 0) {
+                g.removePrecedents(id);
+            } else {
+                DependencyGraph.Precedents deps = randomPrecedents(rnd);
+                DependencyGraph.Precedents before = g.precedentsOf(id);
+                boolean cycle = g.wouldCreateCycle(id, deps);
+                assertEquals(!cycle, g.trySetPrecedents(id, deps), "step " + step + " at " + CellId.toCoord(id));
+                if (cycle) {
+                    rejected++;
+                    assertTrue(before == g.precedentsOf(id), "rejected edit changed " + CellId.toCoord(id));
+                }
+            }
+            assertOrdered(g);
+        }
+        assertTrue(rejected > 100, "only " + rejected + " cycles tried");
+    }
+
+    @Test
+    void cyclicLoadIsOrderedOnceAnEdgeIsRemoved() {
+        DependencyGraph g = new DependencyGraph();
+        long a1 = CellId.of(1, 1);
+        long b1 = CellId.of(1, 2);
+        long c1 = CellId.of(1, 3);
+        g.setPrecedents(c1, cells(a1));
+        g.setPrecedents(a1, cells(b1));
+        // Installed unchecked, as a load would: B1 reads A1 through a range
+        g.setPrecedents(b1, new DependencyGraph.Precedents(DependencyGraph.NO_CELLS, new int[]{1, 1, 3, 1}));
+        assertFalse(g.isAcyclic());
+        assertThrows(IllegalStateException.class, g::topologicalOrder);
+
+        // Adding edges cannot break the cycle; the order stays dropped
+        g.setPrecedents(CellId.of(2, 3), cells(c1));
+        assertThrows(IllegalStateException.class, g::topologicalOrder);
+
+        g.removePrecedents(b1);
+        assertTrue(g.isAcyclic());
+        assertOrdered(g);
+        assertEquals(3, g.topologicalOrder().length);
+
+        // Checked edits work on the rebuilt order
+        assertFalse(g.trySetPrecedents(b1, cells(CellId.of(2, 3))));
+        assertTrue(g.trySetPrecedents(b1, cells(CellId.of(5, 5))));
+        assertOrdered(g);
+    }
+
+    @Test
+    void replacingTheEdgesOfACycleAlsoRebuildsTheOrder() {
+        DependencyGraph g = new DependencyGraph();
+        long a1 = CellId.of(1, 1);
+        long a2 = CellId.of(2, 1);
+        g.setPrecedents(a1, cells(a2));
+        g.setPrecedents(a2, new DependencyGraph.Precedents(DependencyGraph.NO_CELLS, new int[]{1, 1, 1, 2}));
+        assertFalse(g.isAcyclic());
+        g.setPrecedents(a2, cells(CellId.of(3, 1)));
+        assertOrdered(g);
+        assertArrayEquals(new long[]{a2, a1}, g.topologicalOrder());
+    }
+}
@@ -0,0 +1,41 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import org.junit.jupiter.api.Test;
+
+/** Steady-state evaluation must not allocate, measured with the per-thread allocation counter. */
+class EvaluationAllocationTest {
+
+    private static final String FORMULA = "=SUM(A1:A1000;A5*2)+MEAN(A1:A10)/MAX(A3;A4;7)-MIN(A1:A1000)";
+
+    @Test
+    void interpreterAllocatesNothingOnceWarm() {
+        Spreadsheet s = Spreadsheet.tiled(1000, 2);
+        for (int r = 1; r <= 1000; r++) s.setCell(r, 1, new NumericContent(r));
+        FormulaContent f = new FormulaContent(FORMULA, 1, 2);
+        s.setCell(1, 2, f);
+        PostfixEvaluator evaluator = PostfixEvaluator.forCurrentThread();
+        ParsedFormula parsed = f.getParsed();
+
+        double expected = evaluator.evaluate(parsed, 1, 2, s);
+        for (int i = 0; i < 20_000; i++) evaluator.evaluate(parsed, 1, 2, s);
+
+        long allocated = allocatedBytes(() -> {
+            for (int i = 0; i < 10_000; i++) {
+                if (evaluator.evaluate(parsed, 1, 2, s) != expected) throw new AssertionError("result changed");
+            }
+        });
+        assertEquals(0, allocated, "bytes allocated by 10,000 evaluations");
+    }
+
+    private static long allocatedBytes(Runnable work) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        long id = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(id);
+        work.run();
+        // The counter's own query allocates nothing, so any difference comes from work
+        return threads.getThreadAllocatedBytes(id) - before;
+    }
+}
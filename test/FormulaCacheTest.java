@@ -0,0 +1,57 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+
+class FormulaCacheTest {
+
+    @Test
+    void copiedDownFormulasShareOneTemplate() {
+        FormulaContent first = new FormulaContent("=A1*B1+SUM(C1:C3)", 1, 4);
+        FormulaContent copy = new FormulaContent("=A7*B7+SUM(C7:C9)", 7, 4);
+        assertSame(first.getParsed(), copy.getParsed());
+        assertEquals(12, first.references().length);
+        assertArrayEquals(ParsedFormula.shift(first.references(), 6, 0), copy.references());
+    }
+
+    @Test
+    void templateKeepsNoCellsAbsoluteText() {
+        ParsedFormula t = new FormulaContent("=A21*2+SUM(B21:B25)", 21, 3).getParsed();
+        for (Token token : t.postfix) assertFalse(token.text.contains("21"), token.toString());
+        assertEquals(Set.of("{0,-2}", "{0,-1}:{4,-1}"), t.referencedCells);
+    }
+
+    @Test
+    void sharedTemplateEvaluatesAgainstEachOrigin() {
+        Spreadsheet s = Spreadsheet.tiled(10, 2);
+        for (int r = 1; r <= 10; r++) s.setCell(r, 1, new NumericContent(r));
+        s.setCell(2, 2, new FormulaContent("=A2*10", 2, 2));
+        s.setCell(9, 2, new FormulaContent("=A9*10", 9, 2));
+        assertEquals(20.0, s.getCell(2, 2).getContent().getNumericValue(s));
+        assertEquals(90.0, s.getCell(9, 2).getContent().getNumericValue(s));
+    }
+
+    @Test
+    void concurrentLookupsOfOneShapeShareItsTemplate() throws Exception {
+        ParsedFormula first = new FormulaContent("=A1*B1-7", 1, 3).getParsed();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<ParsedFormula>> parsed = new ArrayList<>();
+            for (int r = 2; r <= 2_000; r++) {
+                int row = r;
+                parsed.add(pool.submit(() -> new FormulaContent("=A" + row + "*B" + row + "-7", row, 3).getParsed()));
+            }
+            for (Future<ParsedFormula> f : parsed) assertSame(first, f.get());
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class LazyOpenTest {
+
+    @TempDir
+    Path dir;
+
+    private Spreadsheet open() throws Exception {
+        Spreadsheet s = Spreadsheet.tiled(300, 3);
+        for (int r = 1; r <= 300; r++) s.setCell(r, 1, new NumericContent(r));
+        s.setCell(202, 1, new FormulaContent("=A1+1", 202, 1));
+        s.setCell(250, 2, new FormulaContent("=A1*3", 250, 2));
+        s.setCell(280, 3, new FormulaContent("=SUM(B240:B260)", 280, 3));
+        Path p = dir.resolve("lazy.s2v");
+        new S2VSerializer().save(s, p);
+        return new S2VSerializer().openLazy(p);
+    }
+
+    @Test
+    void cycleThroughAnUnreadRowIsRejectedAtTheEdit() throws Exception {
+        Spreadsheet s = open();
+        assertThrows(IllegalStateException.class, () -> s.setCell(1, 1, new FormulaContent("=A202*2", 1, 1)));
+        assertEquals(1.0, s.getCell(1, 1).getContent().getNumericValue(s));
+        assertEquals(2.0, s.getCell(202, 1).getContent().getNumericValue(s));
+    }
+
+    @Test
+    void cycleReachedThroughARangeIsRejected() throws Exception {
+        Spreadsheet s = open();
+        assertThrows(IllegalStateException.class, () -> s.setCell(1, 1, new FormulaContent("=C280", 1, 1)));
+        Spreadsheet t = open();
+        assertThrows(IllegalStateException.class,
+                () -> t.begin().setFormula(5, 1, "=7").setFormula(1, 1, "=MAX(C270:C290)").commit());
+        assertEquals(5.0, t.getCell(5, 1).getContent().getNumericValue(t));
+    }
+
+    @Test
+    void editOfAnUnreadFormulaKeepsItsNewEdges() throws Exception {
+        Spreadsheet s = open();
+        s.setCell(250, 2, new FormulaContent("=A2", 250, 2));
+        assertEquals(2.0, s.getCell(250, 2).getContent().getNumericValue(s));
+        s.setCell(2, 1, new NumericContent(7));
+        assertEquals(7.0, s.getCell(250, 2).getContent().getNumericValue(s));
+        s.setCell(1, 1, new NumericContent(100));
+        assertEquals(7.0, s.getCell(250, 2).getContent().getNumericValue(s));
+    }
+
+    @Test
+    void acyclicEditThroughUnreadRowsRecalculates() throws Exception {
+        Spreadsheet s = open();
+        s.setCell(3, 2, new FormulaContent("=A202+A10", 3, 2));
+        assertEquals(12.0, s.getCell(3, 2).getContent().getNumericValue(s));
+        s.setCell(1, 1, new NumericContent(5));
+        assertEquals(16.0, s.getCell(3, 2).getContent().getNumericValue(s));
+    }
+}
@@ -0,0 +1,86 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.jupiter.api.Test;
+
+class ParallelRecalcTest {
+
+    private static int levelOf(int[][] levels, long[] ids, long id) {
+        for (int l = 0; l < levels.length; l++)
+            for (int i : levels[l]) if (ids[i] == id) return l;
+        throw new AssertionError("not leveled: " + CellId.toCoord(id));
+    }
+
+    @Test
+    void tallRangeOrdersTheFormulasItHolds() {
+        Spreadsheet s = Spreadsheet.tiled(100_000, 3);
+        for (int r = 1; r <= 100_000; r += 97) s.setCell(r, 1, new NumericContent(r));
+        s.setCell(50_000, 1, new FormulaContent("=B1*2", 50_000, 1));
+        s.setCell(99_999, 1, new FormulaContent("=A50000+1", 99_999, 1));
+        s.setCell(1, 2, new NumericContent(4));
+        s.setCell(1, 3, new FormulaContent("=SUM(A1:A100000)", 1, 3));
+        s.setCell(2, 3, new FormulaContent("=SUM(A1:A40000)", 2, 3));
+
+        DependencyGraph graph = new DependencyGraph();
+        ParallelRecalc recalc = new ParallelRecalc(s, graphOf(s, graph));
+        int[][] levels = recalc.levels();
+        long[] ids = graph.formulaCells();
+        int mid = levelOf(levels, ids, CellId.of(50_000, 1));
+        int end = levelOf(levels, ids, CellId.of(99_999, 1));
+        assertTrue(mid < end);
+        assertTrue(end < levelOf(levels, ids, CellId.of(1, 3)));
+        assertEquals(0, levelOf(levels, ids, CellId.of(2, 3)));
+    }
+
+    // Rebuilds the sheet's edges in a graph the test can hand to ParallelRecalc
+    private static DependencyGraph graphOf(Spreadsheet s, DependencyGraph graph) {
+        s.forEachCellInternal((r, c, cell) -> {
+            if (cell.getContent() instanceof FormulaContent)
+                graph.setPrecedents(CellId.of(r + 1, c + 1), s.precedentsOf(r + 1, c + 1));
+        });
+        return graph;
+    }
+
+    @Test
+    void parallelRecalcMatchesSequential() {
+        Random rnd = new Random(5);
+        Spreadsheet par = Spreadsheet.tiled(2_000, 4);
+        Spreadsheet seq = Spreadsheet.tiled(2_000, 4);
+        for (int r = 1; r <= 2_000; r++) {
+            for (Spreadsheet s : new Spreadsheet[]{par, seq}) s.setCell(r, 1, new NumericContent(r % 13));
+            String raw = r == 1 ? "=A1*2"
+                    : rnd.nextInt(3) == 0 ? "=SUM(B1:B" + (r - 1) + ")/" + r
+                    : "=A" + r + "*2+C" + (r - 1);
+            for (Spreadsheet s : new Spreadsheet[]{par, seq}) s.setCell(r, 2, new FormulaContent(raw, r, 2));
+            for (Spreadsheet s : new Spreadsheet[]{par, seq}) s.setCell(r, 3, new FormulaContent("=B" + r + "-A" + r, r, 3));
+        }
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            par.recomputeAll(pool);
+        } finally {
+            pool.shutdown();
+        }
+        seq.recomputeAll();
+        for (int r = 1; r <= 2_000; r++) {
+            for (int c = 2; c <= 3; c++) {
+                assertEquals(seq.getCell(r, c).getContent().getNumericValue(seq),
+                        par.getCell(r, c).getContent().getNumericValue(par), "row " + r + " col " + c);
+            }
+        }
+    }
+
+    @Test
+    void cycleThroughATallRangeIsFound() {
+        Spreadsheet s = Spreadsheet.tiled(1_000, 2);
+        s.setCell(700, 1, new FormulaContent("=B1", 700, 1));
+        DependencyGraph graph = new DependencyGraph();
+        graphOf(s, graph);
+        // Installed unchecked, as a load would
+        graph.setPrecedents(CellId.of(1, 2), new DependencyGraph.Precedents(new long[0], new int[]{1, 1, 1_000, 1}));
+        s.setCellInternal(0, 1, new Cell(new FormulaContent("=SUM(A1:A1000)", 1, 2)));
+        assertThrows(IllegalStateException.class, () -> new ParallelRecalc(s, graph).levels());
+    }
+}
@@ -0,0 +1,35 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+class PostfixEvaluatorTest {
+
+    private static String error(Spreadsheet s, String raw) {
+        FormulaContent f = new FormulaContent(raw, 10, 1);
+        return assertThrows(IllegalStateException.class,
+                () -> PostfixEvaluator.forCurrentThread().evaluate(f.getParsed(), 10, 1, s)).getMessage();
+    }
+
+    @Test
+    void unknownFunctionIsNamed() {
+        Spreadsheet s = Spreadsheet.tiled(10, 2);
+        s.setCell(1, 1, new NumericContent(1));
+        assertEquals("Unknown function: FOO", error(s, "=FOO(A1)"));
+        assertEquals("Unknown function: FOO", error(s, "=foo(A1;2)"));
+        assertEquals("Unknown function: FOO", error(s, "=FOO()"));
+        assertEquals("Unknown function: BAR", error(s, "=SUM(A1;BAR(A1:A3))"));
+        assertEquals("Function SUM has no arguments", error(s, "=SUM()"));
+    }
+
+    @Test
+    void unknownFunctionFailsBeforeReadingItsArguments() {
+        Spreadsheet s = Spreadsheet.tiled(10, 2);
+        s.setCell(1, 1, new NumericContent(1));
+        FormulaContent input = new FormulaContent("=A1*2", 2, 1);
+        s.setCell(2, 1, input);
+        assertEquals("Unknown function: FOO", error(s, "=FOO(A1:A3)"));
+        assertFalse(input.hasCachedValue());
+    }
+}
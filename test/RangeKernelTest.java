@@ -0,0 +1,83 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class RangeKernelTest {
+
+    private static final int[] FUNCTIONS = {ParsedFormula.SUM, ParsedFormula.MIN, ParsedFormula.MAX, ParsedFormula.MEAN};
+
+    // The cell-by-cell fold the kernel replaces
+    private static Aggregate scalar(Spreadsheet s, int r1, int c1, int r2, int c2) {
+        Aggregate agg = new Aggregate();
+        for (int r = r1; r <= r2; r++)
+            for (int c = c1; c <= c2; c++) agg.add(s.getCell(r, c).getContent().getNumericValue(s));
+        return agg;
+    }
+
+    private static void assertSameResults(Aggregate expected, Aggregate actual) {
+        for (int f : FUNCTIONS) assertEquals(expected.result(f), actual.result(f), "function " + f);
+    }
+
+    @Test
+    void runsAreGatheredAcrossFormulaAndTextCells() {
+        int rows = 3;
+        int cols = 2_500;
+        TiledStorage storage = new TiledStorage(rows + 1, cols);
+        Spreadsheet s = new Spreadsheet(storage);
+        Random rnd = new Random(25);
+        for (int r = 1; r <= rows; r++) {
+            for (int c = 1; c <= cols; c++) {
+                int kind = rnd.nextInt(20);
+                String left = c > 1 ? Spreadsheet.indicesToCoord(r, c - 1) : "D4";
+                if (kind == 0) s.setCell(r, c, new FormulaContent("=" + left + "+0.5", r, c));
+                else if (kind == 1) s.setCell(r, c, new TextContent(rnd.nextInt(100) / 4.0 + ""));
+                else if (kind == 2) s.setCell(r, c, new TextContent(""));
+                else if (kind != 3) s.setCell(r, c, new NumericContent(rnd.nextInt(2_000) / 8.0 - 100));
+            }
+        }
+        // Read by row 1 through a range wide enough to re-enter the kernel on the same thread
+        s.setCell(1, 1_000, new FormulaContent("=SUM(A2:" + Spreadsheet.indicesToCoord(2, cols) + ")", 1, 1_000));
+
+        // Nothing is cached yet, so formulas are evaluated while runs are gathered
+        Aggregate kernel = new Aggregate();
+        RangeKernel.aggregate(s, storage, 1, 1, rows, cols, kernel);
+        assertSameResults(scalar(s, 1, 1, rows, cols), kernel);
+
+        // Now every formula is cached; also start and end mid-row and cross more than one buffer
+        kernel.reset();
+        RangeKernel.aggregate(s, storage, 1, 7, rows, cols - 3, kernel);
+        assertSameResults(scalar(s, 1, 7, rows, cols - 3), kernel);
+    }
+
+    @Test
+    void vectorLanesMatchTheScalarLanes() {
+        assumeTrue(RangeKernel.VECTOR, "needs --add-modules jdk.incubator.vector");
+        Random rnd = new Random(7);
+        double[] v = new double[1_000];
+        for (int n : new int[]{1, 3, 8, 15, 64, 257, 1_000}) {
+            for (int i = 0; i < n; i++) v[i] = rnd.nextInt(1_000_000) / 16.0 - 20_000;
+            Aggregate lanes = new Aggregate();
+            Aggregate vector = new Aggregate();
+            RangeKernel.foldLanes(v, n, lanes);
+            VectorKernel.fold(v, n, vector);
+            // Multiples of 1/16 well inside 2^53: every order of adding them is exact
+            assertSameResults(lanes, vector);
+        }
+
+        v[700] = Double.NaN;
+        Aggregate vector = new Aggregate();
+        VectorKernel.fold(v, 1_000, vector);
+        for (int f : FUNCTIONS) assertTrue(Double.isNaN(vector.result(f)), "function " + f);
+
+        v[700] = Double.NEGATIVE_INFINITY;
+        vector.reset();
+        VectorKernel.fold(v, 1_000, vector);
+        assertEquals(Double.NEGATIVE_INFINITY, vector.result(ParsedFormula.SUM));
+        assertEquals(Double.NEGATIVE_INFINITY, vector.result(ParsedFormula.MIN));
+        assertFalse(Double.isInfinite(vector.result(ParsedFormula.MAX)));
+    }
+}
@@ -0,0 +1,52 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.management.JMX;
+import javax.management.ObjectName;
+import org.junit.jupiter.api.Test;
+
+class RecalcMetricsTest {
+
+    // A thread spinning in compiled code over the probes sees a switch made on another thread
+    @Test
+    void switchReachesARunningThread() throws Exception {
+        Spreadsheet s = Spreadsheet.tiled(2, 2);
+        s.setCell(1, 1, new NumericContent(3));
+        FormulaContent f = new FormulaContent("=A1*2", 1, 2);
+        s.setCell(1, 2, f);
+        f.getNumericValue(s);
+
+        RecalcMetrics.register();
+        RecalcMetricsMBean bean = JMX.newMBeanProxy(ManagementFactory.getPlatformMBeanServer(),
+                new ObjectName(RecalcMetrics.NAME), RecalcMetricsMBean.class);
+        bean.reset();
+        assertFalse(RecalcMetrics.enabled());
+        AtomicBoolean counted = new AtomicBoolean();
+        CountDownLatch warm = new CountDownLatch(1);
+        Thread reader = new Thread(() -> {
+            for (long i = 0; !counted.get(); i++) {
+                f.getNumericValue(s);
+                if (i == 1_000_000) warm.countDown();
+                if ((i & 0xFFFF) == 0 && bean.getCacheHits() > 0) counted.set(true);
+            }
+        });
+        reader.start();
+        try {
+            assertTrue(warm.await(30, TimeUnit.SECONDS));
+            assertEquals(0, bean.getCacheHits());
+            RecalcMetrics.enable(true);
+            reader.join(TimeUnit.SECONDS.toMillis(30));
+            assertTrue(counted.get(), "reader never saw metrics switched on");
+        } finally {
+            RecalcMetrics.enable(false);
+            counted.set(true);
+            reader.join();
+        }
+        assertFalse(RecalcMetrics.enabled());
+    }
+}
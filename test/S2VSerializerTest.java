@@ -0,0 +1,112 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class S2VSerializerTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void roundTripsCellsAndFormulas() throws Exception {
+        Spreadsheet s = Spreadsheet.tiled(5, 3);
+        s.setCell(1, 1, new NumericContent(2.5));
+        s.setCell(1, 2, new TextContent("2024-01-01"));
+        s.setCell(2, 1, new FormulaContent("=SUM(A1:A1;4)*2", 2, 1));
+        Path p = dir.resolve("sheet.s2v");
+        new S2VSerializer().save(s, p);
+
+        Spreadsheet t = new S2VSerializer().load(p);
+        assertEquals("2024-01-01", t.getCell(1, 2).getContent().getRaw());
+        assertEquals(13.0, t.getCell(2, 1).getContent().getNumericValue(t));
+        t.setCell(1, 1, new NumericContent(1));
+        assertEquals(10.0, t.getCell(2, 1).getContent().getNumericValue(t));
+    }
+
+    @Test
+    void cyclicFileStoresNoFormulas() throws Exception {
+        Path p = dir.resolve("cycle.s2v");
+        Files.writeString(p, "2;=C1+A1;=SUM(B1:B2)\n;=A1*3\n");
+        Spreadsheet s = Spreadsheet.tiled(2, 3);
+        s.setCell(1, 1, new NumericContent(5));
+        s.setCell(1, 2, new FormulaContent("=A1+1", 1, 2));
+        assertEquals(6.0, s.getCell(1, 2).getContent().getNumericValue(s));
+
+        IllegalStateException ex = assertThrows(IllegalStateException.class, () -> new S2VSerializer().load(s, p));
+        assertEquals("Circular dependency detected", ex.getMessage());
+        // The plain cell was put; no formula of the file got in, and B1 still reads A1
+        assertEquals("=A1+1", s.getCell(1, 2).getContent().getRaw());
+        assertEquals(3.0, s.getCell(1, 2).getContent().getNumericValue(s));
+        assertTrue(s.getCell(1, 3).getContent() instanceof EmptyContent);
+        assertTrue(s.getCell(2, 2).getContent() instanceof EmptyContent);
+        assertTrue(s.precedentsOf(1, 3).isEmpty());
+        s.setCell(1, 3, new FormulaContent("=B1*2", 1, 3));
+        assertEquals(6.0, s.getCell(1, 3).getContent().getNumericValue(s));
+
+        assertThrows(IllegalStateException.class, () -> new S2VSerializer().load(p));
+    }
+
+    @Test
+    void saveLeavesNeighbouringFilesAlone() throws Exception {
+        Path p = dir.resolve("sheet.s2v");
+        Path users = dir.resolve("sheet.s2v.tmp");
+        Files.writeString(users, "mine");
+        new S2VSerializer().save(Spreadsheet.tiled(2, 2), p);
+        assertEquals("mine", Files.readString(users));
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(2, files.count());
+        }
+    }
+
+    @Test
+    void saveKeepsTheTargetsPermissions() throws Exception {
+        assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+        Path p = dir.resolve("sheet.s2v");
+        Files.writeString(p, "");
+        Files.setPosixFilePermissions(p, PosixFilePermissions.fromString("rw-r-----"));
+        new S2VSerializer().save(Spreadsheet.tiled(2, 2), p);
+        assertEquals("rw-r-----", PosixFilePermissions.toString(Files.getPosixFilePermissions(p)));
+    }
+
+    @Test
+    void concurrentSavesOfOnePathEachWriteWholeFiles() throws Exception {
+        Path p = dir.resolve("sheet.s2v");
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> saves = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                int v = i;
+                saves.add(pool.submit(() -> {
+                    Spreadsheet s = Spreadsheet.tiled(500, 4);
+                    for (int r = 1; r <= 500; r++)
+                        for (int c = 1; c <= 4; c++) s.setCell(r, c, new NumericContent(v));
+                    new S2VSerializer().save(s, p);
+                    return null;
+                }));
+            }
+            for (Future<?> f : saves) f.get();
+        } finally {
+            pool.shutdown();
+        }
+        Spreadsheet t = new S2VSerializer().load(p);
+        double v = t.getCell(1, 1).getContent().getNumericValue(t);
+        assertEquals(v * 2000, new FormulaContent("=SUM(A1:D500)", 1, 5).getNumericValue(t));
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(1, files.count());
+        }
+    }
+}
@@ -0,0 +1,111 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SheetEventsTest {
+
+    @TempDir
+    Path dir;
+
+    private List<RecordedEvent> record(Runnable work) throws Exception {
+        Path jfr = dir.resolve("events.jfr");
+        try (Recording r = new Recording()) {
+            for (String name : new String[]{"Load", "Save", "SetCell", "Invalidate", "Recompute"})
+                r.enable("spreadsheet." + name);
+            r.enable("spreadsheet.SlowFormula").withThreshold(Duration.ZERO);
+            r.start();
+            work.run();
+            r.stop();
+            r.dump(jfr);
+        }
+        return RecordingFile.readAllEvents(jfr).stream()
+                .filter(e -> e.getEventType().getName().startsWith("spreadsheet."))
+                .collect(Collectors.toList());
+    }
+
+    private static List<RecordedEvent> named(List<RecordedEvent> events, String name) {
+        List<RecordedEvent> out = new ArrayList<>();
+        for (RecordedEvent e : events) if (e.getEventType().getName().equals("spreadsheet." + name)) out.add(e);
+        return out;
+    }
+
+    @Test
+    void editsAndRecalculationAreRecorded() throws Exception {
+        Spreadsheet s = Spreadsheet.tiled(100, 5);
+        List<RecordedEvent> events = record(() -> {
+            s.setCell(1, 1, new NumericContent(2));
+            for (int i = 2; i <= 50; i++) s.setCell(i, 1, new FormulaContent("=A" + (i - 1) + "*1", i, 1));
+            s.setCell(1, 2, new FormulaContent("=SUM(A1:A50)+A3", 1, 2));
+            s.getCell(1, 2).getContent().getNumericValue(s);
+            s.begin().set(1, 1, new NumericContent(3)).set(2, 3, new NumericContent(4)).commit();
+            s.recomputeAll();
+        });
+
+        List<RecordedEvent> sets = named(events, "SetCell");
+        assertEquals(51, sets.size());
+        RecordedEvent b1 = sets.get(50);
+        assertEquals("B1", b1.getString("cell"));
+        assertEquals("FORMULA", b1.getString("type"));
+        assertEquals(2, b1.getInt("dependencies"));
+        assertEquals(50, b1.getLong("rangeCells"));
+
+        RecordedEvent tx = named(events, "Invalidate").get(51);
+        assertEquals("A1", tx.getString("cell"));
+        assertEquals(2, tx.getInt("edited"));
+        // A1, the chain A2..A50, B1 and C2
+        assertEquals(52, tx.getInt("invalidated"));
+
+        List<RecordedEvent> recompute = named(events, "Recompute");
+        assertEquals(1, recompute.size());
+        assertEquals(50, recompute.get(0).getInt("formulas"));
+        assertFalse(recompute.get(0).getBoolean("parallel"));
+
+        assertTrue(named(events, "SlowFormula").stream().anyMatch(e ->
+                "B1".equals(e.getString("cell")) && "=SUM(A1:A50)+A3".equals(e.getString("formula"))));
+    }
+
+    @Test
+    void loadsAndSavesAreRecorded() throws Exception {
+        Spreadsheet s = Spreadsheet.tiled(20, 4);
+        s.setCell(3, 2, new FormulaContent("=A1+1", 3, 2));
+        s.setCell(20, 4, new TextContent("end"));
+        Path s2v = dir.resolve("sheet.s2v");
+        Path snap = dir.resolve("sheet.s2vb");
+        List<RecordedEvent> events = record(() -> {
+            try {
+                new S2VSerializer().save(s, s2v);
+                new S2VSerializer().load(s2v);
+                new SnapshotSerializer().save(s, snap);
+                new SnapshotSerializer().load(snap);
+            } catch (Exception ex) {
+                throw new AssertionError(ex);
+            }
+        });
+
+        List<RecordedEvent> saves = named(events, "Save");
+        List<RecordedEvent> loads = named(events, "Load");
+        assertEquals(2, saves.size());
+        assertEquals(2, loads.size());
+        assertEquals(s2v.toString(), saves.get(0).getString("path"));
+        assertEquals(Files.size(s2v), saves.get(0).getLong("bytes"));
+        assertEquals("snapshot", saves.get(1).getString("format"));
+        assertEquals(Files.size(snap), saves.get(1).getLong("bytes"));
+        for (RecordedEvent load : loads) {
+            assertEquals(20, load.getInt("rows"));
+            assertEquals(4, load.getInt("cols"));
+        }
+        assertEquals(Files.size(snap), loads.get(1).getLong("bytes"));
+    }
+}
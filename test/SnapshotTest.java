@@ -0,0 +1,92 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SnapshotTest {
+
+    @TempDir
+    Path dir;
+
+    private static Spreadsheet sheet() {
+        Spreadsheet s = Spreadsheet.versioned(20, 4);
+        for (int r = 1; r <= 10; r++) s.setCell(r, 1, new NumericContent(r));
+        s.setCell(1, 2, new FormulaContent("=A1*2", 1, 2));
+        for (int r = 2; r <= 10; r++) s.setCell(r, 2, new FormulaContent("=B" + (r - 1) + "+A" + r, r, 2));
+        s.setCell(1, 3, new FormulaContent("=SUM(A1:B10)", 1, 3));
+        s.setCell(2, 3, new TextContent("label"));
+        s.recomputeAll();
+        return s;
+    }
+
+    @Test
+    void snapshotEncodesLikeTheSheetItWasTakenFrom() throws Exception {
+        Spreadsheet live = sheet();
+        Spreadsheet frozen = live.snapshot();
+        SnapshotSerializer io = new SnapshotSerializer();
+        assertArrayEquals(io.encode(live), io.encode(frozen));
+    }
+
+    @Test
+    void savedSnapshotKeepsItsDependencies() throws Exception {
+        Spreadsheet live = sheet();
+        Spreadsheet frozen = live.snapshot();
+        live.setCell(1, 1, new NumericContent(100));
+        Path p = dir.resolve("sheet.s2vb");
+        new SnapshotSerializer().save(frozen, p);
+
+        Spreadsheet t = new SnapshotSerializer().load(p);
+        assertEquals(2.0, t.getCell(1, 2).getContent().getNumericValue(t));
+        t.setCell(1, 1, new NumericContent(5));
+        assertEquals(10.0, t.getCell(1, 2).getContent().getNumericValue(t));
+        assertEquals(64.0, t.getCell(10, 2).getContent().getNumericValue(t));
+        double sum = 0;
+        for (int r = 1; r <= 10; r++) {
+            sum += t.getCell(r, 1).getContent().getNumericValue(t) + t.getCell(r, 2).getContent().getNumericValue(t);
+        }
+        assertEquals(sum, t.getCell(1, 3).getContent().getNumericValue(t));
+    }
+
+    @Test
+    void everyCommitPublishesItsVersion() {
+        Spreadsheet live = sheet();
+        Spreadsheet first = live.snapshot();
+        assertSame(first, live.snapshot());
+
+        live.setCell(1, 1, new NumericContent(100));
+        Spreadsheet second = live.snapshot();
+        assertNotSame(first, second);
+        assertEquals(2.0, first.getCell(1, 2).getContent().getNumericValue(first));
+        assertEquals(200.0, second.getCell(1, 2).getContent().getNumericValue(second));
+
+        live.begin().set(2, 1, new NumericContent(0)).set(4, 4, new TextContent("x")).commit();
+        Spreadsheet third = live.snapshot();
+        assertEquals(200.0, third.getCell(2, 2).getContent().getNumericValue(third));
+        assertEquals("x", third.getCell(4, 4).getContent().getRaw());
+        assertEquals("", second.getCell(4, 4).getContent().getRaw());
+    }
+
+    // Readers pin the last committed version without waiting for an edit in progress
+    @Test
+    void snapshotDoesNotWaitForTheEditLock() throws Exception {
+        Spreadsheet live = sheet().concurrent();
+        Spreadsheet before = live.snapshot();
+        Spreadsheet during = live.exclusive(() -> {
+            try {
+                return CompletableFuture.supplyAsync(live::snapshot).get(10, TimeUnit.SECONDS);
+            } catch (Exception ex) {
+                throw new AssertionError("snapshot() blocked behind the edit lock", ex);
+            }
+        });
+        assertSame(before, during);
+        live.setCell(1, 1, new NumericContent(7));
+        Spreadsheet after = live.snapshot();
+        assertEquals(14.0, after.getCell(1, 2).getContent().getNumericValue(after));
+    }
+}
@@ -0,0 +1,160 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SpreadsheetServerTest {
+
+    @TempDir
+    Path root;
+
+    private SpreadsheetServer server;
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @BeforeEach
+    void start() throws Exception {
+        server = SpreadsheetServer.start(0, root);
+    }
+
+    @AfterEach
+    void stop() {
+        server.stop();
+    }
+
+    private HttpResponse<String> send(String method, String path, String body) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + server.port() + path))
+                .method(method, HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    @Test
+    void answersCellsRegionsAndBatches() throws Exception {
+        assertEquals("OK\n", send("PUT", "/cell?at=A1", "4").body());
+        assertEquals("OK\n", send("POST", "/batch", "set B1 =A1*2\nset C1 hi").body());
+        assertEquals("4.0\t8.0\thi\n", send("GET", "/region?from=A1&to=C1", "").body());
+        assertEquals(400, send("GET", "/cell?at=A0", "").statusCode());
+    }
+
+    // Readers and savers run while the sheet is swapped between versioned and loaded ones
+    @Test
+    void requestsNeverFailWhileTheSheetIsReplaced() throws Exception {
+        send("PUT", "/cell?at=A1", "1");
+        assertEquals(200, send("POST", "/save?path=base.s2vb", "").statusCode());
+
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicInteger requests = new AtomicInteger();
+        Queue<String> failures = new ConcurrentLinkedQueue<>();
+        ExecutorService pool = Executors.newFixedThreadPool(5);
+        try {
+            List<Future<?>> done = new ArrayList<>();
+            done.add(pool.submit(() -> {
+                for (int i = 0; !stop.get(); i++) {
+                    check(i % 2 == 0 ? send("POST", "/load?path=base.s2vb", "") : send("POST", "/new?rows=20&cols=5", ""),
+                            requests, failures);
+                }
+                return null;
+            }));
+            for (int t = 0; t < 4; t++) {
+                int id = t;
+                done.add(pool.submit(() -> {
+                    for (int i = 0; !stop.get(); i++) {
+                        HttpResponse<String> r = switch (i % 4) {
+                            case 0 -> send("POST", "/save?path=out" + id + ".s2vb", "");
+                            case 1 -> send("POST", "/save?path=out" + id + ".s2v", "");
+                            case 2 -> send("POST", "/batch", "set B2 =A1+1\nget B2");
+                            default -> send("GET", "/region?from=A1&to=C3", "");
+                        };
+                        check(r, requests, failures);
+                    }
+                    return null;
+                }));
+            }
+            Thread.sleep(2000);
+            stop.set(true);
+            for (Future<?> f : done) f.get();
+        } finally {
+            pool.shutdown();
+        }
+        assertTrue(requests.get() > 0);
+        assertEquals(List.of(), new ArrayList<>(failures));
+    }
+
+    // Every client request is also timed by the server, whose share of it can only be smaller
+    @Test
+    void statsCountAndBoundTheRequestsOfManyClients() throws Exception {
+        int clients = 32;
+        int perClient = 50;
+        assertEquals("OK\n", send("POST", "/batch", "set A1 3\nset B1 =A1*2").body());
+        long[] latencies = new long[clients * perClient];
+        ExecutorService pool = clientExecutor();
+        try {
+            List<Future<?>> done = new ArrayList<>();
+            for (int c = 0; c < clients; c++) {
+                int base = c * perClient;
+                done.add(pool.submit(() -> {
+                    for (int i = 0; i < perClient; i++) {
+                        long start = System.nanoTime();
+                        HttpResponse<String> r = send("GET", "/region?from=A1&to=B1", "");
+                        latencies[base + i] = System.nanoTime() - start;
+                        assertEquals("3.0\t6.0\n", r.body());
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : done) f.get();
+        } finally {
+            pool.shutdown();
+        }
+
+        Matcher m = Pattern.compile("\"/region\": \\{\"count\": (\\d+), \"p50_us\": (\\d+), \"p90_us\": \\d+, \"p99_us\": (\\d+)")
+                .matcher(send("GET", "/stats", "").body());
+        assertTrue(m.find());
+        long p50 = Long.parseLong(m.group(2));
+        long p99 = Long.parseLong(m.group(3));
+        assertEquals(clients * perClient, Long.parseLong(m.group(1)));
+        assertTrue(p50 <= p99, p50 + " > " + p99);
+        Arrays.sort(latencies);
+        // Reported percentiles are bucket upper bounds, at most 12.5% above the value
+        assertTrue(p50 <= clientPercentileMicros(latencies, 0.50) * 1.125 + 1, "p50 " + p50);
+        assertTrue(p99 <= clientPercentileMicros(latencies, 0.99) * 1.125 + 1, "p99 " + p99);
+    }
+
+    // Virtual threads where the JDK has them, as the server picks its own
+    private static ExecutorService clientExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    private static double clientPercentileMicros(long[] sorted, double fraction) {
+        return sorted[(int) Math.ceil(sorted.length * fraction) - 1] / 1000.0;
+    }
+
+    private static void check(HttpResponse<String> r, AtomicInteger requests, Queue<String> failures) {
+        requests.incrementAndGet();
+        if (r.statusCode() != 200) failures.add(r.request().uri().getPath() + ": " + r.body().strip());
+    }
+}
@@ -0,0 +1,47 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+class TransactionTest {
+
+    @Test
+    void badCoordinateIsRejectedWhenStaged() {
+        for (Spreadsheet s : new Spreadsheet[]{Spreadsheet.tiled(5, 5), new Spreadsheet(5, 5)}) {
+            s.setCell(1, 1, new NumericContent(1));
+            Spreadsheet.Transaction tx = s.begin().set(1, 1, new NumericContent(5));
+            assertThrows(IndexOutOfBoundsException.class, () -> tx.set(0, 1, new NumericContent(2)));
+            assertThrows(IndexOutOfBoundsException.class, () -> tx.setFormula(1, 0, "=A1"));
+            assertThrows(IndexOutOfBoundsException.class, () -> tx.set(-3, -3, new NumericContent(2)));
+            tx.rollback();
+            assertEquals(1.0, s.getCell(1, 1).getContent().getNumericValue(s));
+        }
+    }
+
+    @Test
+    void fixedSheetRejectsCellsPastItsEdge() {
+        Spreadsheet s = new Spreadsheet(5, 5);
+        Spreadsheet.Transaction tx = s.begin().set(1, 1, new NumericContent(5));
+        assertThrows(IndexOutOfBoundsException.class, () -> tx.set(6, 1, new NumericContent(2)));
+        assertThrows(IndexOutOfBoundsException.class, () -> tx.set(1, 6, new NumericContent(2)));
+        tx.commit();
+        assertEquals(5.0, s.getCell(1, 1).getContent().getNumericValue(s));
+
+        Spreadsheet grown = Spreadsheet.tiled(5, 5);
+        grown.begin().set(9, 9, new NumericContent(3)).commit();
+        assertEquals(3.0, grown.getCell(9, 9).getContent().getNumericValue(grown));
+    }
+
+    @Test
+    void cycleRollsBackEveryStagedCell() {
+        Spreadsheet s = Spreadsheet.tiled(5, 5);
+        s.setCell(1, 1, new NumericContent(1));
+        s.setCell(1, 2, new FormulaContent("=A1+1", 1, 2));
+        Spreadsheet.Transaction tx = s.begin().set(1, 1, new NumericContent(5)).setFormula(1, 3, "=B1").setFormula(1, 1, "=C1");
+        assertThrows(IllegalStateException.class, tx::commit);
+        assertEquals(2.0, s.getCell(1, 2).getContent().getNumericValue(s));
+        assertEquals("", s.getCell(1, 3).getContent().getRaw());
+        s.setCell(1, 1, new NumericContent(7));
+        assertEquals(8.0, s.getCell(1, 2).getContent().getNumericValue(s));
+    }
+}